@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.contacts;
+
+import android.content.ContentUris;
+import android.content.Intent;
+import android.net.Uri;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Orders the requests sent to {@link ContactSaveService}. Requests run in the order they were
+ * sent, except that a request the user is waiting for may run before pending group membership
+ * and bulk work, as long as it doesn't touch the contacts or groups that work touches. A
+ * request that sets a contact property (starred, ringtone, send to voicemail, super primary)
+ * replaces a pending request that sets the same property of the same contact.
+ */
+final class ContactSaveQueue {
+
+    private static final int PRIORITY_FOREGROUND = 0;
+    private static final int PRIORITY_BACKGROUND = 1;
+
+    /**
+     * The contacts and groups a request changes, as far as can be told from its intent.
+     */
+    private static final class Footprint {
+        private final HashSet<Long> mContactIds = Sets.newHashSet();
+        private final HashSet<Long> mGroupIds = Sets.newHashSet();
+        private boolean mAllContacts;
+        private boolean mAllGroups;
+
+        private void addContactUri(Uri contactUri) {
+            long contactId = -1;
+            if (contactUri != null) {
+                try {
+                    contactId = ContentUris.parseId(contactUri);
+                } catch (NumberFormatException e) {
+                    // A lookup URI without an id
+                }
+            }
+            if (contactId == -1) {
+                mAllContacts = true;
+            } else {
+                mContactIds.add(contactId);
+            }
+        }
+
+        private void addGroupId(long groupId) {
+            if (groupId == -1) {
+                mAllGroups = true;
+            } else {
+                mGroupIds.add(groupId);
+            }
+        }
+
+        private boolean hasContacts() {
+            return mAllContacts || !mContactIds.isEmpty();
+        }
+
+        private boolean hasGroups() {
+            return mAllGroups || !mGroupIds.isEmpty();
+        }
+
+        private boolean overlaps(Footprint other) {
+            if ((mAllContacts && other.hasContacts()) || (other.mAllContacts && hasContacts())
+                    || !Collections.disjoint(mContactIds, other.mContactIds)) {
+                return true;
+            }
+            return (mAllGroups && other.hasGroups()) || (other.mAllGroups && hasGroups())
+                    || !Collections.disjoint(mGroupIds, other.mGroupIds);
+        }
+    }
+
+    /**
+     * A request taken from the queue.
+     */
+    static final class Request {
+        private final int mPriority;
+        private final String mKey;
+        private final Intent mIntent;
+        private final Footprint mFootprint;
+        private final List<Intent> mSupersededCallbackIntents;
+
+        private Request(int priority, String key, Intent intent,
+                List<Intent> supersededCallbackIntents) {
+            mPriority = priority;
+            mKey = key;
+            mIntent = intent;
+            mFootprint = getFootprint(intent);
+            mSupersededCallbackIntents = supersededCallbackIntents;
+        }
+
+        public Intent getIntent() {
+            return mIntent;
+        }
+
+        /**
+         * Returns the callback intents of the requests that were replaced by this one. They
+         * are to be delivered once this request has run.
+         */
+        public List<Intent> getSupersededCallbackIntents() {
+            return mSupersededCallbackIntents;
+        }
+    }
+
+    // Pending requests, in the order they were sent
+    private final ArrayList<Request> mQueue = Lists.newArrayList();
+    private final HashMap<String, Request> mPendingRequests = Maps.newHashMap();
+
+    /**
+     * Adds a request to the queue. A pending request it supersedes is removed, and the new
+     * request takes its turn at the end of the queue.
+     */
+    public synchronized void add(Intent intent) {
+        final String key = getCoalescingKey(intent);
+        List<Intent> supersededCallbackIntents = Collections.emptyList();
+        if (key != null) {
+            final Request superseded = mPendingRequests.remove(key);
+            if (superseded != null) {
+                mQueue.remove(superseded);
+                supersededCallbackIntents = Lists.newArrayList(
+                        superseded.mSupersededCallbackIntents);
+                final Intent callbackIntent = superseded.mIntent.getParcelableExtra(
+                        ContactSaveService.EXTRA_CALLBACK_INTENT);
+                if (callbackIntent != null) {
+                    supersededCallbackIntents.add(callbackIntent);
+                }
+            }
+        }
+
+        final Request request = new Request(getPriority(intent), key, intent,
+                supersededCallbackIntents);
+        mQueue.add(request);
+        if (key != null) {
+            mPendingRequests.put(key, request);
+        }
+    }
+
+    /**
+     * Removes and returns the next request to run, or null if the queue is empty. This is the
+     * oldest request, unless it is background work and the oldest foreground request changes
+     * none of the contacts and groups of the background work sent before it.
+     */
+    public synchronized Request poll() {
+        if (mQueue.isEmpty()) {
+            return null;
+        }
+        int next = 0;
+        for (int i = 0; i < mQueue.size(); i++) {
+            final Request request = mQueue.get(i);
+            if (request.mPriority == PRIORITY_FOREGROUND) {
+                if (!overlapsAny(request, i)) {
+                    next = i;
+                }
+                break;
+            }
+        }
+        final Request request = mQueue.remove(next);
+        if (request.mKey != null) {
+            mPendingRequests.remove(request.mKey);
+        }
+        return request;
+    }
+
+    /**
+     * Returns true if the request changes contacts or groups that one of the first
+     * {@code count} requests of the queue changes.
+     */
+    private boolean overlapsAny(Request request, int count) {
+        for (int i = 0; i < count; i++) {
+            if (request.mFootprint.overlaps(mQueue.get(i).mFootprint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getPriority(Intent intent) {
+        final String action = intent.getAction();
+        // Creating, renaming and deleting a group are done by the user, who waits for the
+        // result; only the membership changes of a group update are background work.
+        if (ContactSaveService.ACTION_UPDATE_GROUP.equals(action)
+                || ContactSaveService.ACTION_DELETE_MULTIPLE_CONTACTS.equals(action)
+                || ContactSaveService.ACTION_UPDATE_MULTIPLE_CONTACTS.equals(action)
+                || ContactSaveService.ACTION_IMPORT_VCARD.equals(action)) {
+            return PRIORITY_BACKGROUND;
+        }
+        return PRIORITY_FOREGROUND;
+    }
+
+    /**
+     * Returns a key shared by the requests that overwrite each other, or null if the request
+     * cannot be replaced by a later one.
+     */
+    private static String getCoalescingKey(Intent intent) {
+        final String action = intent.getAction();
+        if (ContactSaveService.ACTION_SET_STARRED.equals(action)
+                || ContactSaveService.ACTION_SET_RINGTONE.equals(action)
+                || ContactSaveService.ACTION_SET_SEND_TO_VOICEMAIL.equals(action)) {
+            final Uri contactUri = intent.getParcelableExtra(
+                    ContactSaveService.EXTRA_CONTACT_URI);
+            return contactUri == null ? null : action + ":" + contactUri;
+        }
+        if (ContactSaveService.ACTION_SET_SUPER_PRIMARY.equals(action)) {
+            final long dataId = intent.getLongExtra(ContactSaveService.EXTRA_DATA_ID, -1);
+            return dataId == -1 ? null : action + ":" + dataId;
+        }
+        return null;
+    }
+
+    private static Footprint getFootprint(Intent intent) {
+        final String action = intent.getAction();
+        final Footprint footprint = new Footprint();
+        if (ContactSaveService.ACTION_SET_STARRED.equals(action)
+                || ContactSaveService.ACTION_SET_RINGTONE.equals(action)
+                || ContactSaveService.ACTION_SET_SEND_TO_VOICEMAIL.equals(action)
+                || ContactSaveService.ACTION_DELETE_CONTACT.equals(action)) {
+            footprint.addContactUri(
+                    (Uri) intent.getParcelableExtra(ContactSaveService.EXTRA_CONTACT_URI));
+        } else if (ContactSaveService.ACTION_UPDATE_MULTIPLE_CONTACTS.equals(action)
+                || ContactSaveService.ACTION_DELETE_MULTIPLE_CONTACTS.equals(action)) {
+            final long[] contactIds = intent.getLongArrayExtra(
+                    ContactSaveService.EXTRA_CONTACT_IDS);
+            final ArrayList<Uri> contactUris = intent.getParcelableArrayListExtra(
+                    ContactSaveService.EXTRA_CONTACT_URIS);
+            if (contactIds != null) {
+                for (long contactId : contactIds) {
+                    footprint.mContactIds.add(contactId);
+                }
+            } else if (contactUris != null) {
+                for (Uri contactUri : contactUris) {
+                    footprint.addContactUri(contactUri);
+                }
+            }
+        } else if (ContactSaveService.ACTION_RENAME_GROUP.equals(action)
+                || ContactSaveService.ACTION_DELETE_GROUP.equals(action)
+                || ContactSaveService.ACTION_UPDATE_GROUP.equals(action)) {
+            footprint.addGroupId(intent.getLongExtra(ContactSaveService.EXTRA_GROUP_ID, -1));
+        } else if (!ContactSaveService.ACTION_IMPORT_VCARD.equals(action)) {
+            // Saving, joining, creating a group with members, setting a primary... change
+            // contacts and group memberships the intent doesn't tell about. Importing vCards
+            // only inserts new contacts.
+            footprint.mAllContacts = true;
+            footprint.mAllGroups = true;
+        }
+        return footprint;
+    }
+}
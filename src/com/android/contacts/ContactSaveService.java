@@ -16,6 +16,7 @@
 
 package com.android.contacts;
 
+import android.accounts.Account;
 import android.app.Activity;
 import android.app.IntentService;
 import android.content.ContentProviderOperation;
@@ -34,6 +35,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Parcelable;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.AggregationExceptions;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
@@ -54,19 +56,42 @@ import com.android.contacts.common.model.RawContactDeltaList;
 import com.android.contacts.common.model.RawContactModifier;
 import com.android.contacts.common.model.account.AccountWithDataSet;
 import com.android.contacts.util.ContactPhotoUtils;
+import com.android.vcard.VCardConfig;
+import com.android.vcard.VCardEntry;
+import com.android.vcard.VCardEntryConstructor;
+import com.android.vcard.VCardEntryHandler;
+import com.android.vcard.VCardParser;
+import com.android.vcard.VCardParser_V21;
+import com.android.vcard.VCardParser_V30;
+import com.android.vcard.VCardSourceDetector;
+import com.android.vcard.exception.VCardException;
+import com.android.vcard.exception.VCardVersionException;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A service responsible for saving changes to the content provider.
@@ -106,6 +131,10 @@ public class ContactSaveService extends IntentService {
     public static final String EXTRA_CONTACT_URI = "contactUri";
     public static final String EXTRA_STARRED_FLAG = "starred";
 
+    public static final String ACTION_DELETE_MULTIPLE_CONTACTS = "deleteMultipleContacts";
+    public static final String EXTRA_CONTACT_IDS = "contactIds";
+    public static final String EXTRA_CONTACT_URIS = "contactUris";
+
     public static final String ACTION_SET_SUPER_PRIMARY = "setSuperPrimary";
     public static final String ACTION_CLEAR_PRIMARY = "clearPrimary";
     public static final String EXTRA_DATA_ID = "dataId";
@@ -121,6 +150,14 @@ public class ContactSaveService extends IntentService {
     public static final String ACTION_SET_RINGTONE = "setRingtone";
     public static final String EXTRA_CUSTOM_RINGTONE = "customRingtone";
 
+    public static final String ACTION_UPDATE_MULTIPLE_CONTACTS = "updateMultipleContacts";
+    public static final String EXTRA_CONTACT_VALUES = "contactValues";
+
+    public static final String ACTION_IMPORT_VCARD = "importVCard";
+    public static final String EXTRA_VCARD_URI = "vcardUri";
+    public static final String EXTRA_IMPORTED_CONTACT_COUNT = "importedContactCount";
+    public static final String EXTRA_CONTACTS_PER_SECOND = "contactsPerSecond";
+
     private static final HashSet<String> ALLOWED_DATA_COLUMNS = Sets.newHashSet(
         Data.MIMETYPE,
         Data.IS_PRIMARY,
@@ -141,20 +178,79 @@ public class ContactSaveService extends IntentService {
         Data.DATA15
     );
 
+    /** Extras set on the callback intent of requests that report their progress. */
+    public static final String EXTRA_PROGRESS_COMPLETED = "progressCompleted";
+    public static final String EXTRA_PROGRESS_TOTAL = "progressTotal";
+
     private static final int PERSIST_TRIES = 3;
 
+    /** Number of raw contacts whose group memberships are changed in one transaction. */
+    private static final int MEMBERSHIP_BATCH_SIZE = 100;
+
+    /** Number of contacts changed in one transaction by requests that apply to many contacts. */
+    private static final int BULK_BATCH_SIZE = 100;
+
+    /**
+     * Number of operations after which imported vCard entries are committed. An entry is never
+     * split across transactions, so a batch may end up a little larger.
+     */
+    private static final int IMPORT_BATCH_OPERATIONS = 400;
+
+    /**
+     * Number of operations the provider accepts between yield points. The operations built
+     * for vCard entries have no yield points, so an import batch must stay below it.
+     */
+    private static final int MAX_OPERATIONS_PER_YIELD_POINT = 500;
+
     public interface Listener {
         public void onServiceCompleted(Intent callbackIntent);
     }
 
+    /**
+     * Optionally implemented by a {@link Listener} that wants to follow the progress of long
+     * running requests.
+     */
+    public interface ProgressListener {
+        /**
+         * Called with a copy of the callback intent, carrying {@link #EXTRA_PROGRESS_COMPLETED}
+         * and {@link #EXTRA_PROGRESS_TOTAL}, which is -1 if the total is not known in advance.
+         * The callback intent itself is still delivered through
+         * {@link Listener#onServiceCompleted} once the request is done.
+         */
+        public void onServiceProgress(Intent callbackIntent);
+    }
+
     private static final CopyOnWriteArrayList<Listener> sListeners =
             new CopyOnWriteArrayList<Listener>();
 
+    /** Maximum number of photos written at the same time after a save. */
+    private static final int MAX_CONCURRENT_PHOTO_WRITES = 3;
+
+    private static final ThreadPoolExecutor sPhotoWriteExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_PHOTO_WRITES, MAX_CONCURRENT_PHOTO_WRITES, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sPhotoWriteExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private Handler mMainHandler;
 
+    private final ContactSaveQueue mQueue = new ContactSaveQueue();
+
+    // Describe the request being handled, for ContactSaveServiceMetrics. Only accessed on the
+    // worker thread.
+    private int mRequestOperationCount;
+    private int mRequestRetryCount;
+    private boolean mRequestFailed;
+
     public ContactSaveService() {
         super(TAG);
-        setIntentRedelivery(true);
+        // No intent redelivery: requests run in the order of ContactSaveQueue, not in the order
+        // the service was started, so the start IntentService stops after a request isn't the
+        // one that ran. Redelivery would replay requests that already ran and drop the one in
+        // progress.
+        setIntentRedelivery(false);
         mMainHandler = new Handler(Looper.getMainLooper());
     }
 
@@ -180,12 +276,53 @@ public class ContactSaveService extends IntentService {
         return getApplicationContext().getSystemService(name);
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null) {
+            mQueue.add(intent);
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         if (intent == null) {
             Log.d(TAG, "onHandleIntent: could not handle null intent");
             return;
         }
+        // Each start of the service runs the next request in the queue, which is not
+        // necessarily the intent the service was started with. There is nothing left to do
+        // for starts whose request was superseded by a later one.
+        final ContactSaveQueue.Request request = mQueue.poll();
+        if (request == null) {
+            return;
+        }
+        final long startTime = SystemClock.elapsedRealtime();
+        mRequestOperationCount = 0;
+        mRequestRetryCount = 0;
+        mRequestFailed = false;
+        boolean completed = false;
+        try {
+            handleIntent(request.getIntent());
+            completed = true;
+        } finally {
+            ContactSaveServiceMetrics.getInstance().recordRequest(
+                    request.getIntent().getAction(), SystemClock.elapsedRealtime() - startTime,
+                    mRequestOperationCount, mRequestRetryCount, mRequestFailed || !completed);
+            // The callers of the superseded requests wait for their callback even if this
+            // request failed
+            for (Intent callbackIntent : request.getSupersededCallbackIntents()) {
+                deliverCallback(callbackIntent);
+            }
+        }
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        ContactSaveServiceMetrics.getInstance().dump(writer);
+    }
+
+    private void handleIntent(Intent intent) {
         // Call an appropriate method. If we're sure it affects how incoming phone calls are
         // handled, then notify the fact to in-call screen.
         String action = intent.getAction();
@@ -209,12 +346,18 @@ public class ContactSaveService extends IntentService {
             clearPrimary(intent);
         } else if (ACTION_DELETE_CONTACT.equals(action)) {
             deleteContact(intent);
+        } else if (ACTION_DELETE_MULTIPLE_CONTACTS.equals(action)) {
+            deleteMultipleContacts(intent);
         } else if (ACTION_JOIN_CONTACTS.equals(action)) {
             joinContacts(intent);
         } else if (ACTION_SET_SEND_TO_VOICEMAIL.equals(action)) {
             setSendToVoicemail(intent);
         } else if (ACTION_SET_RINGTONE.equals(action)) {
             setRingtone(intent);
+        } else if (ACTION_UPDATE_MULTIPLE_CONTACTS.equals(action)) {
+            updateMultipleContacts(intent);
+        } else if (ACTION_IMPORT_VCARD.equals(action)) {
+            importVCard(intent);
         }
     }
 
@@ -271,6 +414,7 @@ public class ContactSaveService extends IntentService {
 
         ContentResolver resolver = getContentResolver();
         ContentProviderResult[] results;
+        mRequestOperationCount += operations.size();
         try {
             results = resolver.applyBatch(ContactsContract.AUTHORITY, operations);
         } catch (Exception e) {
@@ -365,6 +509,7 @@ public class ContactSaveService extends IntentService {
 
                 ContentProviderResult[] results = null;
                 if (!diff.isEmpty()) {
+                    mRequestOperationCount += diff.size();
                     results = resolver.applyBatch(ContactsContract.AUTHORITY, diff);
                 }
 
@@ -416,6 +561,15 @@ public class ContactSaveService extends IntentService {
             } catch (OperationApplicationException e) {
                 // Version consistency failed, re-parent change and try again
                 Log.w(TAG, "Version consistency failed, re-parenting: " + e.toString());
+                mRequestRetryCount++;
+                final int reloaded = reparentStaleRawContacts(resolver, state, isProfile);
+                if (reloaded > 0) {
+                    ContactSaveServiceMetrics.getInstance().recordRetry(
+                            ContactSaveServiceMetrics.RETRY_STALE_RAW_CONTACTS, reloaded);
+                    continue;
+                }
+
+                // Could not tell which raw contacts are out of date, reload all of them
                 final StringBuilder sb = new StringBuilder(RawContacts._ID + " IN(");
                 boolean first = true;
                 final int count = state.size();
@@ -442,6 +596,8 @@ public class ContactSaveService extends IntentService {
                                 : RawContactsEntity.CONTENT_URI,
                         resolver, sb.toString(), null, null);
                 state = RawContactDeltaList.mergeAfter(newState, state);
+                ContactSaveServiceMetrics.getInstance().recordRetry(
+                        ContactSaveServiceMetrics.RETRY_ALL_RAW_CONTACTS, newState.size());
 
                 // Update the new state to use profile URIs if appropriate.
                 if (isProfile) {
@@ -455,6 +611,7 @@ public class ContactSaveService extends IntentService {
         // Now save any updated photos.  We do this at the end to ensure that
         // the ContactProvider already knows about newly-created contacts.
         if (updatedPhotos != null) {
+            final HashMap<Long, Uri> photos = Maps.newHashMap();
             for (String key : updatedPhotos.keySet()) {
                 Uri photoUri = updatedPhotos.getParcelable(key);
                 long rawContactId = Long.parseLong(key);
@@ -469,8 +626,13 @@ public class ContactSaveService extends IntentService {
                     }
                 }
 
-                if (!saveUpdatedPhoto(rawContactId, photoUri)) succeeded = false;
+                photos.put(rawContactId, photoUri);
             }
+            if (!saveUpdatedPhotos(photos)) succeeded = false;
+        }
+
+        if (!succeeded) {
+            mRequestFailed = true;
         }
 
         Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
@@ -486,16 +648,165 @@ public class ContactSaveService extends IntentService {
         }
     }
 
+    private interface RawContactVersionQuery {
+        String[] PROJECTION = {
+                RawContacts._ID,
+                RawContacts.VERSION,
+        };
+
+        int _ID = 0;
+        int VERSION = 1;
+    }
+
+    /**
+     * Finds the raw contacts of the state whose version no longer matches the provider, which
+     * are the ones whose version asserts failed, and re-parents the changes made to them onto
+     * freshly loaded copies. The other raw contacts of the state are left untouched.
+     *
+     * @return the number of raw contacts that were reloaded, or 0 if none could be identified.
+     */
+    private int reparentStaleRawContacts(ContentResolver resolver, RawContactDeltaList state,
+            boolean isProfile) {
+        final HashMap<Long, Long> versions = Maps.newHashMap();
+        final StringBuilder sb = new StringBuilder(RawContacts._ID + " IN(");
+        final int count = state.size();
+        for (int i = 0; i < count; i++) {
+            final Long rawContactId = state.getRawContactId(i);
+            final Long version = state.get(i).getValues().getAsLong(RawContacts.VERSION);
+            if (rawContactId != null && rawContactId > 0 && version != null) {
+                if (!versions.isEmpty()) {
+                    sb.append(',');
+                }
+                sb.append(rawContactId);
+                versions.put(rawContactId, version);
+            }
+        }
+        sb.append(")");
+        if (versions.isEmpty()) {
+            return 0;
+        }
+
+        final Cursor c = resolver.query(
+                isProfile ? Profile.CONTENT_RAW_CONTACTS_URI : RawContacts.CONTENT_URI,
+                RawContactVersionQuery.PROJECTION, sb.toString(), null, null);
+        if (c == null) {
+            return 0;
+        }
+        final HashSet<Long> staleIds = Sets.newHashSet(versions.keySet());
+        try {
+            while (c.moveToNext()) {
+                final long rawContactId = c.getLong(RawContactVersionQuery._ID);
+                if (versions.get(rawContactId).longValue()
+                        == c.getLong(RawContactVersionQuery.VERSION)) {
+                    staleIds.remove(rawContactId);
+                }
+            }
+        } finally {
+            c.close();
+        }
+        if (staleIds.isEmpty()) {
+            return 0;
+        }
+
+        sb.setLength(0);
+        sb.append(RawContacts._ID + " IN(");
+        boolean first = true;
+        for (Long rawContactId : staleIds) {
+            if (!first) {
+                sb.append(',');
+            }
+            sb.append(rawContactId);
+            first = false;
+        }
+        sb.append(")");
+        final RawContactDeltaList newState = RawContactDeltaList.fromQuery(
+                isProfile
+                        ? RawContactsEntity.PROFILE_CONTENT_URI
+                        : RawContactsEntity.CONTENT_URI,
+                resolver, sb.toString(), null, null);
+
+        for (int i = state.size() - 1; i >= 0; i--) {
+            final RawContactDelta delta = state.get(i);
+            final Long rawContactId = delta.getValues().getId();
+            if (!staleIds.contains(rawContactId)) {
+                continue;
+            }
+            final RawContactDelta merged = RawContactDelta.mergeAfter(
+                    newState.getByRawContactId(rawContactId), delta);
+            if (merged == null) {
+                // Deleted both locally and in the provider
+                state.remove(i);
+                continue;
+            }
+            if (isProfile) {
+                merged.setProfileQueryUri();
+            }
+            state.set(i, merged);
+        }
+        Log.w(TAG, "Re-parented " + staleIds.size() + " of " + count + " raw contacts");
+        return staleIds.size();
+    }
+
+    /**
+     * Save updated photos for the specified raw-contacts, several at a time.
+     * @return true for success, false if any photo failed
+     */
+    private boolean saveUpdatedPhotos(HashMap<Long, Uri> photos) {
+        final List<Long> lengths = Lists.newArrayList();
+        if (photos.size() == 1) {
+            // Not worth a hand-off to another thread
+            final Map.Entry<Long, Uri> entry = photos.entrySet().iterator().next();
+            lengths.add(saveUpdatedPhoto(entry.getKey(), entry.getValue()));
+        } else {
+            final List<Future<Long>> writes = Lists.newArrayList();
+            for (Map.Entry<Long, Uri> entry : photos.entrySet()) {
+                final long rawContactId = entry.getKey();
+                final Uri photoUri = entry.getValue();
+                writes.add(sPhotoWriteExecutor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return saveUpdatedPhoto(rawContactId, photoUri);
+                    }
+                }));
+            }
+            for (Future<Long> write : writes) {
+                try {
+                    lengths.add(write.get());
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while saving photos", e);
+                    Thread.currentThread().interrupt();
+                    lengths.add(-1L);
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Failed to save photo", e);
+                    lengths.add(-1L);
+                }
+            }
+        }
+
+        boolean succeeded = true;
+        long bytesWritten = 0;
+        for (long length : lengths) {
+            if (length < 0) {
+                succeeded = false;
+            } else {
+                bytesWritten += length;
+            }
+        }
+        ContactSaveServiceMetrics.getInstance().recordPhotoWrites(lengths.size(), bytesWritten);
+        Log.v(TAG, "Wrote " + bytesWritten + " bytes for " + lengths.size() + " photos");
+        return succeeded;
+    }
+
     /**
      * Save updated photo for the specified raw-contact.
-     * @return true for success, false for failure
+     * @return the number of bytes written, or -1 for failure
      */
-    private boolean saveUpdatedPhoto(long rawContactId, Uri photoUri) {
+    private long saveUpdatedPhoto(long rawContactId, Uri photoUri) {
         final Uri outputUri = Uri.withAppendedPath(
                 ContentUris.withAppendedId(RawContacts.CONTENT_URI, rawContactId),
                 RawContacts.DisplayPhoto.CONTENT_DIRECTORY);
 
-        return ContactPhotoUtils.savePhotoFromUriToUri(this, photoUri, outputUri, true);
+        return ContactPhotoUtils.copyPhotoFromUriToUri(this, photoUri, outputUri, true);
     }
 
     /**
@@ -591,8 +902,12 @@ public class ContactSaveService extends IntentService {
             return;
         }
 
+        Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
+
         // Add new group members
-        addMembersToGroup(resolver, rawContactsToAdd, ContentUris.parseId(groupUri));
+        final int total = rawContactsToAdd == null ? 0 : rawContactsToAdd.length;
+        addMembersToGroup(resolver, rawContactsToAdd, ContentUris.parseId(groupUri),
+                callbackIntent, 0, total);
 
         // TODO: Move this into the contact editor where it belongs. This needs to be integrated
         // with the way other intent extras that are passed to the {@link ContactEditorActivity}.
@@ -600,8 +915,8 @@ public class ContactSaveService extends IntentService {
         values.put(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
         values.put(GroupMembership.GROUP_ROW_ID, ContentUris.parseId(groupUri));
 
-        Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
         callbackIntent.setData(groupUri);
+        putProgressExtras(callbackIntent, total, total);
         // TODO: This can be taken out when the above TODO is addressed
         callbackIntent.putExtra(ContactsContract.Intents.Insert.DATA, Lists.newArrayList(values));
         deliverCallback(callbackIntent);
@@ -720,81 +1035,180 @@ public class ContactSaveService extends IntentService {
             resolver.update(groupUri, values, null, null);
         }
 
+        Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
+
         // Add and remove members if necessary
-        addMembersToGroup(resolver, rawContactsToAdd, groupId);
-        removeMembersFromGroup(resolver, rawContactsToRemove, groupId);
+        final int total = (rawContactsToAdd == null ? 0 : rawContactsToAdd.length)
+                + (rawContactsToRemove == null ? 0 : rawContactsToRemove.length);
+        int completed = addMembersToGroup(resolver, rawContactsToAdd, groupId,
+                callbackIntent, 0, total);
+        completed = removeMembersFromGroup(resolver, rawContactsToRemove, groupId,
+                callbackIntent, completed, total);
 
-        Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
         callbackIntent.setData(groupUri);
+        putProgressExtras(callbackIntent, completed, total);
         deliverCallback(callbackIntent);
     }
 
-    private static void addMembersToGroup(ContentResolver resolver, long[] rawContactsToAdd,
-            long groupId) {
+    private interface GroupMembershipQuery {
+        String[] PROJECTION = {
+                Data.RAW_CONTACT_ID,
+        };
+
+        String SELECTION = Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=? AND "
+                + Data.RAW_CONTACT_ID + " IN (";
+
+        int RAW_CONTACT_ID = 0;
+    }
+
+    /**
+     * Adds the raw contacts to the group, {@link #MEMBERSHIP_BATCH_SIZE} at a time. Raw contacts
+     * that are already members are skipped.
+     *
+     * @return the updated number of processed raw contacts
+     */
+    private int addMembersToGroup(ContentResolver resolver, long[] rawContactsToAdd,
+            long groupId, Intent callbackIntent, int completed, int total) {
         if (rawContactsToAdd == null) {
-            return;
+            return completed;
         }
-        for (long rawContactId : rawContactsToAdd) {
-            try {
-                final ArrayList<ContentProviderOperation> rawContactOperations =
-                        new ArrayList<ContentProviderOperation>();
-
-                // Build an assert operation to ensure the contact is not already in the group
-                final ContentProviderOperation.Builder assertBuilder = ContentProviderOperation
-                        .newAssertQuery(Data.CONTENT_URI);
-                assertBuilder.withSelection(Data.RAW_CONTACT_ID + "=? AND " +
-                        Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
-                        new String[] { String.valueOf(rawContactId),
-                        GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
-                assertBuilder.withExpectedCount(0);
-                rawContactOperations.add(assertBuilder.build());
-
-                // Build an insert operation to add the contact to the group
-                final ContentProviderOperation.Builder insertBuilder = ContentProviderOperation
-                        .newInsert(Data.CONTENT_URI);
-                insertBuilder.withValue(Data.RAW_CONTACT_ID, rawContactId);
-                insertBuilder.withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
-                insertBuilder.withValue(GroupMembership.GROUP_ROW_ID, groupId);
-                rawContactOperations.add(insertBuilder.build());
+        for (int start = 0; start < rawContactsToAdd.length; start += MEMBERSHIP_BATCH_SIZE) {
+            final long[] rawContactIds = Arrays.copyOfRange(rawContactsToAdd, start,
+                    Math.min(start + MEMBERSHIP_BATCH_SIZE, rawContactsToAdd.length));
+            // An assert fails if another writer added one of these raw contacts to the group
+            // in the meantime. Re-reading the memberships and retrying once takes care of that.
+            if (!addMembersToGroupBatch(resolver, rawContactIds, groupId)
+                    && !addMembersToGroupBatch(resolver, rawContactIds, groupId)) {
+                mRequestFailed = true;
+                Log.w(TAG, "Unable to add " + rawContactIds.length + " raw contacts to group "
+                        + groupId);
+            }
+            completed += rawContactIds.length;
+            deliverProgress(callbackIntent, completed, total);
+        }
+        return completed;
+    }
 
-                if (DEBUG) {
-                    for (ContentProviderOperation operation : rawContactOperations) {
-                        Log.v(TAG, operation.toString());
-                    }
-                }
+    /**
+     * Adds one batch of raw contacts to the group in a single transaction.
+     *
+     * @return false if the transaction was rolled back because an assert failed
+     */
+    private boolean addMembersToGroupBatch(ContentResolver resolver,
+            long[] rawContactIds, long groupId) {
+        final HashSet<Long> members = queryGroupMembers(resolver, rawContactIds, groupId);
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>();
+        for (long rawContactId : rawContactIds) {
+            if (!members.add(rawContactId)) {
+                // Already a member, or listed twice
+                continue;
+            }
 
-                // Apply batch
-                if (!rawContactOperations.isEmpty()) {
-                    resolver.applyBatch(ContactsContract.AUTHORITY, rawContactOperations);
-                }
-            } catch (RemoteException e) {
-                // Something went wrong, bail without success
-                Log.e(TAG, "Problem persisting user edits for raw contact ID " +
-                        String.valueOf(rawContactId), e);
-            } catch (OperationApplicationException e) {
-                // The assert could have failed because the contact is already in the group,
-                // just continue to the next contact
-                Log.w(TAG, "Assert failed in adding raw contact ID " +
-                        String.valueOf(rawContactId) + ". Already exists in group " +
-                        String.valueOf(groupId), e);
+            // Build an assert operation to ensure the contact is not already in the group.
+            // The provider may yield between raw contacts, but not between the assert and
+            // the insert.
+            final ContentProviderOperation.Builder assertBuilder = ContentProviderOperation
+                    .newAssertQuery(Data.CONTENT_URI);
+            assertBuilder.withSelection(Data.RAW_CONTACT_ID + "=? AND " +
+                    Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
+                    new String[] { String.valueOf(rawContactId),
+                    GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
+            assertBuilder.withExpectedCount(0);
+            assertBuilder.withYieldAllowed(true);
+            operations.add(assertBuilder.build());
+
+            // Build an insert operation to add the contact to the group
+            final ContentProviderOperation.Builder insertBuilder = ContentProviderOperation
+                    .newInsert(Data.CONTENT_URI);
+            insertBuilder.withValue(Data.RAW_CONTACT_ID, rawContactId);
+            insertBuilder.withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
+            insertBuilder.withValue(GroupMembership.GROUP_ROW_ID, groupId);
+            operations.add(insertBuilder.build());
+        }
+
+        if (DEBUG) {
+            for (ContentProviderOperation operation : operations) {
+                Log.v(TAG, operation.toString());
+            }
+        }
+
+        if (operations.isEmpty()) {
+            return true;
+        }
+        mRequestOperationCount += operations.size();
+        try {
+            resolver.applyBatch(ContactsContract.AUTHORITY, operations);
+        } catch (RemoteException e) {
+            // Something went wrong, bail without success
+            Log.e(TAG, "Problem adding " + rawContactIds.length + " raw contacts to group "
+                    + groupId, e);
+            mRequestFailed = true;
+        } catch (OperationApplicationException e) {
+            Log.w(TAG, "Assert failed in adding raw contacts to group " + groupId, e);
+            mRequestRetryCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns which of the given raw contacts are members of the group.
+     */
+    private static HashSet<Long> queryGroupMembers(ContentResolver resolver,
+            long[] rawContactIds, long groupId) {
+        final HashSet<Long> members = Sets.newHashSet();
+        final Cursor c = resolver.query(Data.CONTENT_URI, GroupMembershipQuery.PROJECTION,
+                buildGroupMembershipSelection(rawContactIds),
+                new String[] { GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId) },
+                null);
+        if (c == null) {
+            return members;
+        }
+        try {
+            while (c.moveToNext()) {
+                members.add(c.getLong(GroupMembershipQuery.RAW_CONTACT_ID));
+            }
+        } finally {
+            c.close();
+        }
+        return members;
+    }
+
+    private static String buildGroupMembershipSelection(long[] rawContactIds) {
+        final StringBuilder sb = new StringBuilder(GroupMembershipQuery.SELECTION);
+        for (int i = 0; i < rawContactIds.length; i++) {
+            if (i > 0) {
+                sb.append(',');
             }
+            sb.append(rawContactIds[i]);
         }
+        sb.append(')');
+        return sb.toString();
     }
 
-    private static void removeMembersFromGroup(ContentResolver resolver, long[] rawContactsToRemove,
-            long groupId) {
+    /**
+     * Removes the raw contacts from the group, deleting the membership rows of
+     * {@link #MEMBERSHIP_BATCH_SIZE} raw contacts at a time. Raw contacts that are not members
+     * are ignored.
+     *
+     * @return the updated number of processed raw contacts
+     */
+    private int removeMembersFromGroup(ContentResolver resolver, long[] rawContactsToRemove,
+            long groupId, Intent callbackIntent, int completed, int total) {
         if (rawContactsToRemove == null) {
-            return;
+            return completed;
         }
-        for (long rawContactId : rawContactsToRemove) {
-            // Apply the delete operation on the data row for the given raw contact's
-            // membership in the given group. If no contact matches the provided selection, then
-            // nothing will be done. Just continue to the next contact.
-            resolver.delete(Data.CONTENT_URI, Data.RAW_CONTACT_ID + "=? AND " +
-                    Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
-                    new String[] { String.valueOf(rawContactId),
-                    GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId)});
+        for (int start = 0; start < rawContactsToRemove.length;
+                start += MEMBERSHIP_BATCH_SIZE) {
+            final long[] rawContactIds = Arrays.copyOfRange(rawContactsToRemove, start,
+                    Math.min(start + MEMBERSHIP_BATCH_SIZE, rawContactsToRemove.length));
+            resolver.delete(Data.CONTENT_URI, buildGroupMembershipSelection(rawContactIds),
+                    new String[] { GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId) });
+            completed += rawContactIds.length;
+            deliverProgress(callbackIntent, completed, total);
         }
+        return completed;
     }
 
     /**
@@ -893,6 +1307,323 @@ public class ContactSaveService extends IntentService {
         getContentResolver().update(contactUri, values, null, null);
     }
 
+    /**
+     * Creates an intent that can be sent to this service to import all the contacts of a vCard
+     * file into the given account. The file is parsed as it is read, and contacts are committed
+     * in batches, so that files of any size can be imported. The callback intent, if any, is
+     * sent progress updates as described in {@link ProgressListener}, and finally carries
+     * {@link #EXTRA_SAVE_SUCCEEDED}, {@link #EXTRA_IMPORTED_CONTACT_COUNT} and
+     * {@link #EXTRA_CONTACTS_PER_SECOND}.
+     */
+    public static Intent createImportVCardIntent(Context context, Uri vcardUri,
+            AccountWithDataSet account, Class<? extends Activity> callbackActivity,
+            String callbackAction) {
+        Intent serviceIntent = new Intent(context, ContactSaveService.class);
+        serviceIntent.setAction(ContactSaveService.ACTION_IMPORT_VCARD);
+        serviceIntent.putExtra(ContactSaveService.EXTRA_VCARD_URI, vcardUri);
+        if (account != null) {
+            serviceIntent.putExtra(ContactSaveService.EXTRA_ACCOUNT_NAME, account.name);
+            serviceIntent.putExtra(ContactSaveService.EXTRA_ACCOUNT_TYPE, account.type);
+        }
+        putOptionalCallbackIntent(context, serviceIntent, callbackActivity, callbackAction);
+        return serviceIntent;
+    }
+
+    /**
+     * Commits the entries of a vCard as they are parsed, {@link #IMPORT_BATCH_OPERATIONS}
+     * operations at a time.
+     */
+    private class VCardImportHandler implements VCardEntryHandler {
+        private final ContentResolver mResolver;
+        private final Intent mCallbackIntent;
+        private final ArrayList<ContentProviderOperation> mOperations =
+                new ArrayList<ContentProviderOperation>();
+        private int mPendingContactCount;
+        private int mImportedContactCount;
+        private boolean mFailed;
+
+        public VCardImportHandler(ContentResolver resolver, Intent callbackIntent) {
+            mResolver = resolver;
+            mCallbackIntent = callbackIntent;
+        }
+
+        @Override
+        public void onStart() {
+        }
+
+        @Override
+        public void onEntryCreated(VCardEntry entry) {
+            final int previousSize = mOperations.size();
+            entry.constructInsertOperations(mResolver, mOperations);
+            if (previousSize > 0 && mOperations.size() >= MAX_OPERATIONS_PER_YIELD_POINT) {
+                // The entry doesn't fit in the batch. Commit the batch without it, then build
+                // the entry again, since its operations refer back to their position in the
+                // batch.
+                mOperations.subList(previousSize, mOperations.size()).clear();
+                commit();
+                entry.constructInsertOperations(mResolver, mOperations);
+            }
+            mPendingContactCount++;
+            if (mOperations.size() >= IMPORT_BATCH_OPERATIONS) {
+                commit();
+            }
+        }
+
+        @Override
+        public void onEnd() {
+            commit();
+        }
+
+        private void commit() {
+            if (mOperations.isEmpty()) {
+                return;
+            }
+            mRequestOperationCount += mOperations.size();
+            try {
+                mResolver.applyBatch(ContactsContract.AUTHORITY, mOperations);
+                mImportedContactCount += mPendingContactCount;
+            } catch (RemoteException e) {
+                Log.e(TAG, "Problem importing " + mPendingContactCount + " vCard entries", e);
+                mFailed = true;
+            } catch (OperationApplicationException e) {
+                Log.e(TAG, "Problem importing " + mPendingContactCount + " vCard entries", e);
+                mFailed = true;
+            }
+            mOperations.clear();
+            mPendingContactCount = 0;
+            deliverProgress(mCallbackIntent, mImportedContactCount, -1);
+        }
+
+        public int getImportedContactCount() {
+            return mImportedContactCount;
+        }
+
+        public boolean hasFailed() {
+            return mFailed;
+        }
+    }
+
+    private void importVCard(Intent intent) {
+        final Uri vcardUri = intent.getParcelableExtra(EXTRA_VCARD_URI);
+        if (vcardUri == null) {
+            Log.e(TAG, "Invalid arguments for importVCard request");
+            return;
+        }
+        final String accountName = intent.getStringExtra(EXTRA_ACCOUNT_NAME);
+        final String accountType = intent.getStringExtra(EXTRA_ACCOUNT_TYPE);
+        final Account account = accountName != null && accountType != null
+                ? new Account(accountName, accountType) : null;
+
+        final ContentResolver resolver = getContentResolver();
+        final Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
+        final long startTime = SystemClock.elapsedRealtime();
+
+        // Find out the version of the file before writing anything, since a version error can
+        // come after entries were parsed. This is what ImportVCardActivity does too.
+        final VCardImportHandler handler = new VCardImportHandler(resolver, callbackIntent);
+        boolean succeeded = false;
+        final VCardSource source = detectVCardSource(resolver, vcardUri);
+        if (source != null) {
+            final int estimatedType = source.detector.getEstimatedType();
+            final VCardParser parser = source.isV21 ? new VCardParser_V21(estimatedType)
+                    : new VCardParser_V30(estimatedType);
+            final VCardEntryConstructor constructor = new VCardEntryConstructor(estimatedType,
+                    account, source.detector.getEstimatedCharset());
+            constructor.addEntryHandler(handler);
+            parser.addInterpreter(constructor);
+
+            InputStream inputStream = null;
+            try {
+                inputStream = resolver.openInputStream(vcardUri);
+                parser.parse(inputStream);
+                succeeded = !handler.hasFailed();
+            } catch (VCardException e) {
+                Log.e(TAG, "Failed to parse vCard " + vcardUri, e);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read vCard " + vcardUri, e);
+            } finally {
+                Closeables.closeQuietly(inputStream);
+            }
+        }
+
+        final int importedContactCount = handler.getImportedContactCount();
+        final long elapsedMillis = Math.max(1, SystemClock.elapsedRealtime() - startTime);
+        final float contactsPerSecond = importedContactCount * 1000f / elapsedMillis;
+        Log.i(TAG, "Imported " + importedContactCount + " contacts in " + elapsedMillis
+                + "ms (" + contactsPerSecond + " contacts/s)");
+
+        mRequestFailed |= !succeeded;
+        if (!succeeded) {
+            showToast(R.string.contactSavedErrorToast);
+        }
+        if (callbackIntent != null) {
+            putProgressExtras(callbackIntent, importedContactCount, importedContactCount);
+            callbackIntent.putExtra(EXTRA_SAVE_SUCCEEDED, succeeded);
+            callbackIntent.putExtra(EXTRA_IMPORTED_CONTACT_COUNT, importedContactCount);
+            callbackIntent.putExtra(EXTRA_CONTACTS_PER_SECOND, contactsPerSecond);
+            deliverCallback(callbackIntent);
+        }
+    }
+
+    /**
+     * The version of a vCard file, and what was detected of its source.
+     */
+    private static class VCardSource {
+        final boolean isV21;
+        final VCardSourceDetector detector;
+
+        VCardSource(boolean isV21, VCardSourceDetector detector) {
+            this.isV21 = isV21;
+            this.detector = detector;
+        }
+    }
+
+    /**
+     * Reads a vCard file without importing it, to find out its version and the type of its
+     * source.
+     *
+     * @return the source of the file, or null if it could not be read
+     */
+    private static VCardSource detectVCardSource(ContentResolver resolver, Uri vcardUri) {
+        for (int vcardType : new int[] { VCardConfig.VCARD_TYPE_V21_GENERIC,
+                VCardConfig.VCARD_TYPE_V30_GENERIC }) {
+            final boolean isV21 = vcardType == VCardConfig.VCARD_TYPE_V21_GENERIC;
+            final VCardParser parser = isV21
+                    ? new VCardParser_V21(vcardType) : new VCardParser_V30(vcardType);
+            // A new detector for each attempt, so that a failed one doesn't skew the estimate
+            final VCardSourceDetector detector = new VCardSourceDetector();
+            parser.addInterpreter(detector);
+            InputStream inputStream = null;
+            try {
+                inputStream = resolver.openInputStream(vcardUri);
+                parser.parse(inputStream);
+                return new VCardSource(isV21, detector);
+            } catch (VCardVersionException e) {
+                Log.d(TAG, "Not a vCard of type " + vcardType + ", retrying");
+            } catch (VCardException e) {
+                Log.e(TAG, "Failed to parse vCard " + vcardUri, e);
+                return null;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read vCard " + vcardUri, e);
+                return null;
+            } finally {
+                Closeables.closeQuietly(inputStream);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates an intent that can be sent to this service to star or un-star many contacts.
+     * The contacts are given as contact IDs, see {@link #createUpdateMultipleContactsIntent}.
+     */
+    public static Intent createSetStarredMultipleIntent(Context context, long[] contactIds,
+            boolean value, Class<? extends Activity> callbackActivity, String callbackAction) {
+        final ContentValues values = new ContentValues(1);
+        values.put(Contacts.STARRED, value);
+        return createUpdateMultipleContactsIntent(context, contactIds, values,
+                callbackActivity, callbackAction);
+    }
+
+    /**
+     * Creates an intent that can be sent to this service to change whether calls from many
+     * contacts go to voicemail.
+     */
+    public static Intent createSetSendToVoicemailMultipleIntent(Context context,
+            long[] contactIds, boolean value, Class<? extends Activity> callbackActivity,
+            String callbackAction) {
+        final ContentValues values = new ContentValues(1);
+        values.put(Contacts.SEND_TO_VOICEMAIL, value);
+        return createUpdateMultipleContactsIntent(context, contactIds, values,
+                callbackActivity, callbackAction);
+    }
+
+    /**
+     * Creates an intent that can be sent to this service to set the ringtone of many contacts.
+     */
+    public static Intent createSetRingtoneMultipleIntent(Context context, long[] contactIds,
+            String value, Class<? extends Activity> callbackActivity, String callbackAction) {
+        final ContentValues values = new ContentValues(1);
+        values.put(Contacts.CUSTOM_RINGTONE, value);
+        return createUpdateMultipleContactsIntent(context, contactIds, values,
+                callbackActivity, callbackAction);
+    }
+
+    /**
+     * Creates an intent that can be sent to this service to apply the same
+     * {@link Contacts#STARRED}, {@link Contacts#CUSTOM_RINGTONE} and/or
+     * {@link Contacts#SEND_TO_VOICEMAIL} values to many contacts in one request. The callback
+     * intent, if any, is delivered once for the whole request and is sent progress updates as
+     * described in {@link ProgressListener}.
+     */
+    private static Intent createUpdateMultipleContactsIntent(Context context, long[] contactIds,
+            ContentValues values, Class<? extends Activity> callbackActivity,
+            String callbackAction) {
+        Intent serviceIntent = new Intent(context, ContactSaveService.class);
+        serviceIntent.setAction(ContactSaveService.ACTION_UPDATE_MULTIPLE_CONTACTS);
+        serviceIntent.putExtra(ContactSaveService.EXTRA_CONTACT_IDS, contactIds);
+        serviceIntent.putExtra(ContactSaveService.EXTRA_CONTACT_VALUES, values);
+        putOptionalCallbackIntent(context, serviceIntent, callbackActivity, callbackAction);
+        return serviceIntent;
+    }
+
+    private void updateMultipleContacts(Intent intent) {
+        final List<Uri> contactUris = getContactUris(intent);
+        final ContentValues values = intent.getParcelableExtra(EXTRA_CONTACT_VALUES);
+        if (contactUris == null || values == null) {
+            Log.e(TAG, "Invalid arguments for updateMultipleContacts request");
+            return;
+        }
+        values.keySet().retainAll(Sets.newHashSet(
+                Contacts.STARRED, Contacts.CUSTOM_RINGTONE, Contacts.SEND_TO_VOICEMAIL));
+
+        final ArrayList<ContentProviderOperation> operations =
+                Lists.newArrayListWithCapacity(contactUris.size());
+        for (Uri contactUri : contactUris) {
+            operations.add(ContentProviderOperation.newUpdate(contactUri)
+                    .withValues(values)
+                    .withYieldAllowed(true)
+                    .build());
+        }
+
+        final Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
+        final boolean succeeded = applyInBatches(operations, callbackIntent);
+
+        // Undemote the newly starred contacts, like setStarred() does
+        for (long contactId : getContactIdsToUndemote(
+                intent.getLongArrayExtra(EXTRA_CONTACT_IDS), values, succeeded)) {
+            getContentResolver().call(ContactsContract.AUTHORITY_URI,
+                    PinnedPositions.UNDEMOTE_METHOD, String.valueOf(contactId), null);
+        }
+
+        if (callbackIntent != null) {
+            callbackIntent.putExtra(EXTRA_SAVE_SUCCEEDED, succeeded);
+            deliverCallback(callbackIntent);
+        }
+    }
+
+    /**
+     * Returns the contacts to undemote after an {@link #ACTION_UPDATE_MULTIPLE_CONTACTS}
+     * request: the contacts it starred, if it succeeded, except for the user's profile. The
+     * provider can only undemote one contact per call, so unstarring must not pay for it.
+     */
+    static long[] getContactIdsToUndemote(long[] contactIds, ContentValues values,
+            boolean succeeded) {
+        final Boolean starred = values.getAsBoolean(Contacts.STARRED);
+        if (contactIds == null || !succeeded || starred == null || !starred) {
+            return new long[0];
+        }
+        int count = 0;
+        final long[] result = new long[contactIds.length];
+        for (long contactId : contactIds) {
+            // Don't bother undemoting if this contact is the user's profile
+            if (contactId < Profile.MIN_ID) {
+                result[count++] = contactId;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
     /**
      * Creates an intent that sets the selected data item as super primary (default)
      */
@@ -961,6 +1692,124 @@ public class ContactSaveService extends IntentService {
         getContentResolver().delete(contactUri, null, null);
     }
 
+    /**
+     * Creates an intent that can be sent to this service to delete the contacts with the
+     * given IDs. The callback intent, if any, is sent progress updates as described in
+     * {@link ProgressListener}.
+     */
+    public static Intent createDeleteMultipleContactsIntent(Context context, long[] contactIds,
+            Class<? extends Activity> callbackActivity, String callbackAction) {
+        Intent serviceIntent = new Intent(context, ContactSaveService.class);
+        serviceIntent.setAction(ContactSaveService.ACTION_DELETE_MULTIPLE_CONTACTS);
+        serviceIntent.putExtra(ContactSaveService.EXTRA_CONTACT_IDS, contactIds);
+        putOptionalCallbackIntent(context, serviceIntent, callbackActivity, callbackAction);
+        return serviceIntent;
+    }
+
+    /**
+     * Creates an intent that can be sent to this service to delete the contacts with the
+     * given contact or lookup URIs. The callback intent, if any, is sent progress updates as
+     * described in {@link ProgressListener}.
+     */
+    public static Intent createDeleteMultipleContactsIntent(Context context,
+            ArrayList<Uri> contactUris, Class<? extends Activity> callbackActivity,
+            String callbackAction) {
+        Intent serviceIntent = new Intent(context, ContactSaveService.class);
+        serviceIntent.setAction(ContactSaveService.ACTION_DELETE_MULTIPLE_CONTACTS);
+        serviceIntent.putParcelableArrayListExtra(ContactSaveService.EXTRA_CONTACT_URIS,
+                contactUris);
+        putOptionalCallbackIntent(context, serviceIntent, callbackActivity, callbackAction);
+        return serviceIntent;
+    }
+
+    private static void putOptionalCallbackIntent(Context context, Intent serviceIntent,
+            Class<? extends Activity> callbackActivity, String callbackAction) {
+        if (callbackActivity != null) {
+            // Callback intent will be invoked by the service once the request is done.
+            Intent callbackIntent = new Intent(context, callbackActivity);
+            callbackIntent.setAction(callbackAction);
+            serviceIntent.putExtra(ContactSaveService.EXTRA_CALLBACK_INTENT, callbackIntent);
+        }
+    }
+
+    /**
+     * Returns the contact URIs of a request that applies to many contacts, given either as
+     * {@link #EXTRA_CONTACT_IDS} or as {@link #EXTRA_CONTACT_URIS}.
+     */
+    private static List<Uri> getContactUris(Intent intent) {
+        final long[] contactIds = intent.getLongArrayExtra(EXTRA_CONTACT_IDS);
+        if (contactIds != null) {
+            final List<Uri> contactUris = Lists.newArrayListWithCapacity(contactIds.length);
+            for (long contactId : contactIds) {
+                contactUris.add(ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId));
+            }
+            return contactUris;
+        }
+        return intent.getParcelableArrayListExtra(EXTRA_CONTACT_URIS);
+    }
+
+    private void deleteMultipleContacts(Intent intent) {
+        final List<Uri> contactUris = getContactUris(intent);
+        if (contactUris == null) {
+            Log.e(TAG, "Invalid arguments for deleteMultipleContacts request");
+            return;
+        }
+
+        final ArrayList<ContentProviderOperation> operations =
+                Lists.newArrayListWithCapacity(contactUris.size());
+        for (Uri contactUri : contactUris) {
+            operations.add(ContentProviderOperation.newDelete(contactUri)
+                    .withYieldAllowed(true)
+                    .build());
+        }
+
+        final Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
+        final boolean succeeded = applyInBatches(operations, callbackIntent);
+        if (callbackIntent != null) {
+            callbackIntent.putExtra(EXTRA_SAVE_SUCCEEDED, succeeded);
+            deliverCallback(callbackIntent);
+        }
+    }
+
+    /**
+     * Applies operations that each change one contact, {@link #BULK_BATCH_SIZE} per
+     * transaction. Progress is reported to the callback intent after each transaction and
+     * set on the callback intent at the end.
+     *
+     * @return true if all the operations were applied
+     */
+    private boolean applyInBatches(ArrayList<ContentProviderOperation> operations,
+            Intent callbackIntent) {
+        final ContentResolver resolver = getContentResolver();
+        final int total = operations.size();
+        int completed = 0;
+        boolean succeeded = true;
+        for (int start = 0; start < total; start += BULK_BATCH_SIZE) {
+            final ArrayList<ContentProviderOperation> batch = new ArrayList<
+                    ContentProviderOperation>(operations.subList(start,
+                            Math.min(start + BULK_BATCH_SIZE, total)));
+            mRequestOperationCount += batch.size();
+            try {
+                resolver.applyBatch(ContactsContract.AUTHORITY, batch);
+            } catch (RemoteException e) {
+                // The provider is gone, so will be the remaining batches
+                Log.e(TAG, "Problem applying batch of " + batch.size() + " operations", e);
+                succeeded = false;
+                break;
+            } catch (OperationApplicationException e) {
+                Log.w(TAG, "Failed to apply batch of " + batch.size() + " operations", e);
+                succeeded = false;
+            }
+            completed += batch.size();
+            deliverProgress(callbackIntent, completed, total);
+        }
+        if (callbackIntent != null) {
+            putProgressExtras(callbackIntent, completed, total);
+        }
+        mRequestFailed |= !succeeded;
+        return succeeded;
+    }
+
     /**
      * Creates an intent that can be sent to this service to join two contacts.
      */
@@ -1059,15 +1908,7 @@ public class ContactSaveService extends IntentService {
             c.close();
         }
 
-        // For each pair of raw contacts, insert an aggregation exception
         ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
-        for (int i = 0; i < rawContactIds.length; i++) {
-            for (int j = 0; j < rawContactIds.length; j++) {
-                if (i != j) {
-                    buildJoinContactDiff(operations, rawContactIds[i], rawContactIds[j]);
-                }
-            }
-        }
 
         // Mark the original contact as "name verified" to make sure that the contact
         // display name does not change as a result of the join
@@ -1078,19 +1919,36 @@ public class ContactSaveService extends IntentService {
             operations.add(builder.build());
         }
 
-        boolean success = false;
-        // Apply all aggregation exceptions as one batch
+        // Keep-together exceptions are transitive, so it is enough to link each group of raw
+        // contacts already kept together to the first one, instead of emitting an exception
+        // for every pair of raw contacts. Keep-separate exceptions between the raw contacts,
+        // left by an earlier split, are overwritten.
+        final List<long[]> keepTogether = Lists.newArrayList();
+        final List<long[]> keepSeparate = Lists.newArrayList();
+        queryAggregationExceptions(resolver, rawContactIds, keepTogether, keepSeparate);
+        final List<long[]> pairs = getJoinPairs(rawContactIds, keepTogether, keepSeparate);
+        // The join is applied in one transaction, unless it has more operations than the
+        // provider accepts without a yield point
+        final boolean yieldAllowed =
+                operations.size() + pairs.size() > MAX_OPERATIONS_PER_YIELD_POINT;
+        for (long[] pair : pairs) {
+            buildJoinContactDiff(operations, pair[0], pair[1],
+                    yieldAllowed && operations.size() % MAX_OPERATIONS_PER_YIELD_POINT == 0);
+        }
+
+        boolean success = true;
+        mRequestOperationCount += operations.size();
         try {
             resolver.applyBatch(ContactsContract.AUTHORITY, operations);
-            showToast(R.string.contactsJoinedMessage);
-            success = true;
         } catch (RemoteException e) {
             Log.e(TAG, "Failed to apply aggregation exception batch", e);
-            showToast(R.string.contactSavedErrorToast);
+            success = false;
         } catch (OperationApplicationException e) {
             Log.e(TAG, "Failed to apply aggregation exception batch", e);
-            showToast(R.string.contactSavedErrorToast);
+            success = false;
         }
+        mRequestFailed |= !success;
+        showToast(success ? R.string.contactsJoinedMessage : R.string.contactSavedErrorToast);
 
         Intent callbackIntent = intent.getParcelableExtra(EXTRA_CALLBACK_INTENT);
         if (success) {
@@ -1101,16 +1959,137 @@ public class ContactSaveService extends IntentService {
         deliverCallback(callbackIntent);
     }
 
+    private interface AggregationExceptionQuery {
+        String[] PROJECTION = {
+                AggregationExceptions.TYPE,
+                AggregationExceptions.RAW_CONTACT_ID1,
+                AggregationExceptions.RAW_CONTACT_ID2,
+        };
+
+        int TYPE = 0;
+        int RAW_CONTACT_ID1 = 1;
+        int RAW_CONTACT_ID2 = 2;
+    }
+
+    /**
+     * Adds the {@link AggregationExceptions#TYPE_KEEP_TOGETHER} and
+     * {@link AggregationExceptions#TYPE_KEEP_SEPARATE} exceptions that exist between the given
+     * raw contacts to the given lists, as pairs of raw contact IDs.
+     */
+    private static void queryAggregationExceptions(ContentResolver resolver,
+            long[] rawContactIds, List<long[]> keepTogether, List<long[]> keepSeparate) {
+        final StringBuilder ids = new StringBuilder();
+        for (int i = 0; i < rawContactIds.length; i++) {
+            if (i > 0) {
+                ids.append(',');
+            }
+            ids.append(rawContactIds[i]);
+        }
+        final Cursor c = resolver.query(AggregationExceptions.CONTENT_URI,
+                AggregationExceptionQuery.PROJECTION,
+                AggregationExceptions.RAW_CONTACT_ID1 + " IN (" + ids + ")"
+                        + " AND " + AggregationExceptions.RAW_CONTACT_ID2 + " IN (" + ids + ")",
+                null, null);
+        if (c == null) {
+            return;
+        }
+        try {
+            while (c.moveToNext()) {
+                final long[] pair = new long[] {
+                        c.getLong(AggregationExceptionQuery.RAW_CONTACT_ID1),
+                        c.getLong(AggregationExceptionQuery.RAW_CONTACT_ID2) };
+                switch (c.getInt(AggregationExceptionQuery.TYPE)) {
+                    case AggregationExceptions.TYPE_KEEP_TOGETHER:
+                        keepTogether.add(pair);
+                        break;
+                    case AggregationExceptions.TYPE_KEEP_SEPARATE:
+                        keepSeparate.add(pair);
+                        break;
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Returns the pairs of raw contacts to keep together so that all the raw contacts are
+     * joined, given the pairs that are already kept together or kept separate. Every pair kept
+     * separate is kept together instead. The raw contacts are then partitioned into groups
+     * connected by those pairs, and the first raw contact of each group is linked to the first
+     * raw contact of the first group.
+     */
+    static List<long[]> getJoinPairs(long[] rawContactIds, List<long[]> keepTogether,
+            List<long[]> keepSeparate) {
+        final HashMap<Long, Integer> indexes = Maps.newHashMap();
+        for (int i = 0; i < rawContactIds.length; i++) {
+            indexes.put(rawContactIds[i], i);
+        }
+
+        final int[] parents = new int[rawContactIds.length];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        final List<long[]> pairs = Lists.newArrayList();
+        for (long[] pair : keepSeparate) {
+            final Integer index1 = indexes.get(pair[0]);
+            final Integer index2 = indexes.get(pair[1]);
+            if (index1 != null && index2 != null) {
+                pairs.add(pair);
+                union(parents, index1, index2);
+            }
+        }
+        for (long[] pair : keepTogether) {
+            final Integer index1 = indexes.get(pair[0]);
+            final Integer index2 = indexes.get(pair[1]);
+            if (index1 != null && index2 != null) {
+                union(parents, index1, index2);
+            }
+        }
+
+        final int root = findRoot(parents, 0);
+        for (int i = 1; i < rawContactIds.length; i++) {
+            if (union(parents, 0, i)) {
+                pairs.add(new long[] { rawContactIds[root], rawContactIds[i] });
+            }
+        }
+        return pairs;
+    }
+
+    private static int findRoot(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /**
+     * Merges the sets containing {@code i} and {@code j}, keeping the root of {@code i}.
+     *
+     * @return false if they already were in the same set
+     */
+    private static boolean union(int[] parents, int i, int j) {
+        final int rootI = findRoot(parents, i);
+        final int rootJ = findRoot(parents, j);
+        if (rootI == rootJ) {
+            return false;
+        }
+        parents[rootJ] = rootI;
+        return true;
+    }
+
     /**
      * Construct a {@link AggregationExceptions#TYPE_KEEP_TOGETHER} ContentProviderOperation.
      */
     private void buildJoinContactDiff(ArrayList<ContentProviderOperation> operations,
-            long rawContactId1, long rawContactId2) {
+            long rawContactId1, long rawContactId2, boolean yieldAllowed) {
         Builder builder =
                 ContentProviderOperation.newUpdate(AggregationExceptions.CONTENT_URI);
         builder.withValue(AggregationExceptions.TYPE, AggregationExceptions.TYPE_KEEP_TOGETHER);
         builder.withValue(AggregationExceptions.RAW_CONTACT_ID1, rawContactId1);
         builder.withValue(AggregationExceptions.RAW_CONTACT_ID2, rawContactId2);
+        builder.withYieldAllowed(yieldAllowed);
         operations.add(builder.build());
     }
 
@@ -1137,6 +2116,38 @@ public class ContactSaveService extends IntentService {
         });
     }
 
+    private static void putProgressExtras(Intent callbackIntent, int completed, int total) {
+        callbackIntent.putExtra(EXTRA_PROGRESS_COMPLETED, completed);
+        callbackIntent.putExtra(EXTRA_PROGRESS_TOTAL, total);
+    }
+
+    private void deliverProgress(Intent callbackIntent, int completed, int total) {
+        if (callbackIntent == null) {
+            return;
+        }
+        final Intent progressIntent = new Intent(callbackIntent);
+        putProgressExtras(progressIntent, completed, total);
+        mMainHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                deliverProgressOnUiThread(progressIntent);
+            }
+        });
+    }
+
+    void deliverProgressOnUiThread(final Intent progressIntent) {
+        for (Listener listener : sListeners) {
+            if (progressIntent.getComponent().equals(
+                    ((Activity) listener).getIntent().getComponent())) {
+                if (listener instanceof ProgressListener) {
+                    ((ProgressListener) listener).onServiceProgress(progressIntent);
+                }
+                return;
+            }
+        }
+    }
+
     void deliverCallbackOnUiThread(final Intent callbackIntent) {
         // TODO: this assumes that if there are multiple instances of the same
         // activity registered, the last one registered is the one waiting for
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.contacts;
+
+import com.google.common.collect.Maps;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * In-process counters describing the work done by {@link ContactSaveService}.
+ */
+public final class ContactSaveServiceMetrics {
+
+    /** Retry after re-fetching only the raw contacts whose version changed. */
+    public static final String RETRY_STALE_RAW_CONTACTS = "staleRawContacts";
+    /** Retry after re-fetching every raw contact of the saved state. */
+    public static final String RETRY_ALL_RAW_CONTACTS = "allRawContacts";
+
+    private static final long[] LATENCY_BUCKETS_MILLIS = {
+            10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+    private static final long[] OPERATION_BUCKETS = {
+            0, 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000 };
+    private static final long[] RETRY_BUCKETS = { 0, 1, 2, 3 };
+
+    private static final ContactSaveServiceMetrics sInstance = new ContactSaveServiceMetrics();
+
+    /**
+     * Distribution of a value over fixed buckets. Bucket {@code i} counts the values that are
+     * greater than the upper bound of bucket {@code i - 1} and at most its own upper bound; the
+     * last bucket counts the values above all the upper bounds.
+     */
+    public static final class Histogram {
+        private final long[] mUpperBounds;
+        private final int[] mBuckets;
+        private int mCount;
+        private long mSum;
+        private long mMax;
+
+        private Histogram(long[] upperBounds) {
+            mUpperBounds = upperBounds;
+            mBuckets = new int[upperBounds.length + 1];
+        }
+
+        private Histogram(Histogram histogram) {
+            mUpperBounds = histogram.mUpperBounds;
+            mBuckets = histogram.mBuckets.clone();
+            mCount = histogram.mCount;
+            mSum = histogram.mSum;
+            mMax = histogram.mMax;
+        }
+
+        private void add(long value) {
+            int bucket = Arrays.binarySearch(mUpperBounds, value);
+            if (bucket < 0) {
+                bucket = -bucket - 1;
+            }
+            mBuckets[bucket]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public int getBucketCount() {
+            return mBuckets.length;
+        }
+
+        /**
+         * Returns the upper bound of a bucket, or {@link Long#MAX_VALUE} for the last bucket.
+         */
+        public long getBucketUpperBound(int bucket) {
+            return bucket < mUpperBounds.length ? mUpperBounds[bucket] : Long.MAX_VALUE;
+        }
+
+        public int getBucketValue(int bucket) {
+            return mBuckets[bucket];
+        }
+
+        private void dump(PrintWriter writer, String name) {
+            writer.print("    ");
+            writer.print(name);
+            writer.print(": count=");
+            writer.print(mCount);
+            writer.print(" sum=");
+            writer.print(mSum);
+            writer.print(" max=");
+            writer.print(mMax);
+            writer.print(" [");
+            for (int i = 0; i < mBuckets.length; i++) {
+                if (i > 0) {
+                    writer.print(", ");
+                }
+                writer.print(i < mUpperBounds.length ? "<=" + mUpperBounds[i] : "more");
+                writer.print(':');
+                writer.print(mBuckets[i]);
+            }
+            writer.println("]");
+        }
+    }
+
+    /**
+     * Statistics of the requests handled for one action.
+     */
+    public static final class ActionStats {
+        private final Histogram mLatencyMillis;
+        private final Histogram mOperations;
+        private final Histogram mRetries;
+        private int mFailures;
+
+        private ActionStats() {
+            mLatencyMillis = new Histogram(LATENCY_BUCKETS_MILLIS);
+            mOperations = new Histogram(OPERATION_BUCKETS);
+            mRetries = new Histogram(RETRY_BUCKETS);
+        }
+
+        private ActionStats(ActionStats stats) {
+            mLatencyMillis = new Histogram(stats.mLatencyMillis);
+            mOperations = new Histogram(stats.mOperations);
+            mRetries = new Histogram(stats.mRetries);
+            mFailures = stats.mFailures;
+        }
+
+        public int getRequestCount() {
+            return mLatencyMillis.getCount();
+        }
+
+        public int getFailureCount() {
+            return mFailures;
+        }
+
+        /** Time spent handling each request. */
+        public Histogram getLatencyMillis() {
+            return mLatencyMillis;
+        }
+
+        /** Number of operations each request applied in provider batches, retries included. */
+        public Histogram getOperationCounts() {
+            return mOperations;
+        }
+
+        /** Number of times each request had to be retried. */
+        public Histogram getRetryCounts() {
+            return mRetries;
+        }
+    }
+
+    private final HashMap<String, Integer> mRetries = Maps.newHashMap();
+    private int mReloadedRawContacts;
+    private final HashMap<String, ActionStats> mActionStats = Maps.newHashMap();
+    private int mPhotoWrites;
+    private long mPhotoBytesWritten;
+
+    private ContactSaveServiceMetrics() {
+    }
+
+    public static ContactSaveServiceMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records a retry of a save, and the number of raw contacts that were re-fetched for it.
+     */
+    public synchronized void recordRetry(String reason, int reloadedRawContacts) {
+        final Integer count = mRetries.get(reason);
+        mRetries.put(reason, count == null ? 1 : count + 1);
+        mReloadedRawContacts += reloadedRawContacts;
+    }
+
+    public synchronized int getRetryCount(String reason) {
+        final Integer count = mRetries.get(reason);
+        return count == null ? 0 : count;
+    }
+
+    public synchronized int getReloadedRawContactCount() {
+        return mReloadedRawContacts;
+    }
+
+    /**
+     * Records photos written after a save, and the total number of bytes written for them.
+     */
+    public synchronized void recordPhotoWrites(int photoCount, long bytesWritten) {
+        mPhotoWrites += photoCount;
+        mPhotoBytesWritten += bytesWritten;
+    }
+
+    public synchronized int getPhotoWriteCount() {
+        return mPhotoWrites;
+    }
+
+    public synchronized long getPhotoBytesWritten() {
+        return mPhotoBytesWritten;
+    }
+
+    /**
+     * Records a request handled by the service.
+     */
+    public synchronized void recordRequest(String action, long latencyMillis,
+            int operationCount, int retryCount, boolean failed) {
+        ActionStats stats = mActionStats.get(action);
+        if (stats == null) {
+            stats = new ActionStats();
+            mActionStats.put(action, stats);
+        }
+        stats.mLatencyMillis.add(latencyMillis);
+        stats.mOperations.add(operationCount);
+        stats.mRetries.add(retryCount);
+        if (failed) {
+            stats.mFailures++;
+        }
+    }
+
+    /**
+     * Returns the actions for which requests were recorded.
+     */
+    public synchronized Set<String> getActions() {
+        return new TreeSet<String>(mActionStats.keySet());
+    }
+
+    /**
+     * Returns a snapshot of the statistics of an action, or null if no request was recorded
+     * for it.
+     */
+    public synchronized ActionStats getActionStats(String action) {
+        final ActionStats stats = mActionStats.get(action);
+        return stats == null ? null : new ActionStats(stats);
+    }
+
+    public synchronized void reset() {
+        mRetries.clear();
+        mReloadedRawContacts = 0;
+        mActionStats.clear();
+        mPhotoWrites = 0;
+        mPhotoBytesWritten = 0;
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("ContactSaveService metrics:");
+        writer.print("  retries=");
+        writer.print(mRetries);
+        writer.print(" reloadedRawContacts=");
+        writer.println(mReloadedRawContacts);
+        writer.print("  photoWrites=");
+        writer.print(mPhotoWrites);
+        writer.print(" photoBytesWritten=");
+        writer.println(mPhotoBytesWritten);
+        for (String action : getActions()) {
+            final ActionStats stats = mActionStats.get(action);
+            writer.print("  ");
+            writer.print(action);
+            writer.print(": requests=");
+            writer.print(stats.getRequestCount());
+            writer.print(" failures=");
+            writer.println(stats.mFailures);
+            stats.mLatencyMillis.dump(writer, "latencyMillis");
+            stats.mOperations.dump(writer, "operations");
+            stats.mRetries.dump(writer, "retries");
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.android.contacts;
 
 import android.content.Context;
 import android.content.CursorLoader;
+import android.database.Cursor;
 import android.net.Uri;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
@@ -58,6 +59,7 @@ public final class GroupMemberLoader extends CursorLoader {
             Data.DISPLAY_NAME_PRIMARY,              // 3
             Data.CONTACT_PRESENCE,                  // 4
             Data.CONTACT_STATUS,                    // 5
+            Data._ID,                               // 6
         };
 
         public static final int CONTACT_ID                   = 0;
@@ -66,6 +68,19 @@ public final class GroupMemberLoader extends CursorLoader {
         public static final int CONTACT_DISPLAY_NAME_PRIMARY = 3;
         public static final int CONTACT_PRESENCE_STATUS      = 4;
         public static final int CONTACT_STATUS               = 5;
+        public static final int DATA_ID                      = 6;
+    }
+
+    /**
+     * Query for the IDs of the membership rows only, in display order. Used to page through
+     * large groups with {@link #queryGroupDetailWindow}.
+     */
+    public static class GroupMemberIdQuery {
+        private static final String[] PROJECTION = new String[] {
+            Data._ID,                               // 0
+        };
+
+        public static final int DATA_ID                      = 0;
     }
 
     private final long mGroupId;
@@ -86,6 +101,36 @@ public final class GroupMemberLoader extends CursorLoader {
         return new GroupMemberLoader(context, groupId, GroupDetailQuery.PROJECTION);
     }
 
+    /**
+     * @return GroupMemberLoader object loading the IDs of the members of a group, in the order
+     * of the group detail page. The rows themselves are then fetched a window at a time with
+     * {@link #queryGroupDetailWindow}.
+     */
+    public static GroupMemberLoader constructLoaderForGroupMemberIdsQuery(
+            Context context, long groupId) {
+        return new GroupMemberLoader(context, groupId, GroupMemberIdQuery.PROJECTION);
+    }
+
+    /**
+     * Returns the rows of the group detail page for the given membership rows, in the same
+     * order as {@link #constructLoaderForGroupMemberIdsQuery}. Must not be called on the UI
+     * thread.
+     */
+    public static Cursor queryGroupDetailWindow(Context context, long[] dataIds, int start,
+            int end) {
+        final StringBuilder selection = new StringBuilder();
+        selection.append(Data._ID + " IN (");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                selection.append(',');
+            }
+            selection.append(dataIds[i]);
+        }
+        selection.append(')');
+        return context.getContentResolver().query(createUri(), GroupDetailQuery.PROJECTION,
+                selection.toString(), null, getSortOrder(context));
+    }
+
     private GroupMemberLoader(Context context, long groupId, String[] projection) {
         super(context);
         mGroupId = groupId;
@@ -93,16 +138,20 @@ public final class GroupMemberLoader extends CursorLoader {
         setProjection(projection);
         setSelection(createSelection());
         setSelectionArgs(createSelectionArgs());
+        setSortOrder(getSortOrder(context));
+    }
 
+    private static String getSortOrder(Context context) {
+        // The ID breaks ties, so that the order is the same from one query to the next
         ContactsPreferences prefs = new ContactsPreferences(context);
         if (prefs.getSortOrder() == ContactsPreferences.SORT_ORDER_PRIMARY) {
-            setSortOrder(Contacts.SORT_KEY_PRIMARY);
+            return Contacts.SORT_KEY_PRIMARY + ", " + Data._ID;
         } else {
-            setSortOrder(Contacts.SORT_KEY_ALTERNATIVE);
+            return Contacts.SORT_KEY_ALTERNATIVE + ", " + Data._ID;
         }
     }
 
-    private Uri createUri() {
+    private static Uri createUri() {
         Uri uri = Data.CONTENT_URI;
         uri = uri.buildUpon().appendQueryParameter(ContactsContract.DIRECTORY_PARAM_KEY,
                 String.valueOf(Directory.DEFAULT)).build();
@@ -19,18 +19,27 @@ package com.android.contacts;
 import android.app.Activity;
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.nfc.NdefMessage;
 import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
 import android.nfc.NfcEvent;
+import android.os.AsyncTask;
+import android.os.Handler;
 import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Profile;
 import android.util.Log;
+import android.util.LruCache;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
   * This class implements sharing the currently displayed
@@ -39,64 +48,171 @@ import java.io.InputStream;
   * When an NFC link is established, {@link #createMessage}
   * will be called to create the data to be sent over the link,
   * which is a vCard in this case.
+  *
+  * The message is rendered in the background as soon as the handler is registered, and
+  * rendered again whenever the contacts change, so that it is usually ready when the link is
+  * established. Rendered messages are only kept while a registered handler watches their
+  * contact; handlers registered for the same contact share its message.
   */
 public class NfcHandler implements NfcAdapter.CreateNdefMessageCallback {
 
     private static final String TAG = "ContactNfcHandler";
     private static final String PROFILE_LOOKUP_KEY = "profile";
+
+    /** Delay before rendering the message again after the contacts changed. */
+    private static final long RENDER_DELAY_MILLIS = 1000;
+
+    /** Messages rendered for recently shown contacts, by lookup key. */
+    private static final LruCache<String, NdefMessage> sMessageCache =
+            new LruCache<String, NdefMessage>(4);
+
+    /** Number of registered handlers, by lookup key. */
+    private static final HashMap<String, Integer> sRegistrationCounts = Maps.newHashMap();
+
     private final Context mContext;
     private final Uri mContactUri;
+    private final String mLookupKey;
+    private final Handler mHandler = new Handler();
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private boolean mRegistered;
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mGeneration.incrementAndGet();
+            sMessageCache.remove(mLookupKey);
+            mHandler.removeCallbacks(mRenderRunnable);
+            mHandler.postDelayed(mRenderRunnable, RENDER_DELAY_MILLIS);
+        }
+    };
+
+    private final Runnable mRenderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            render();
+        }
+    };
 
-    /* Register NFC handler. This should be called in activities' onCreate(), or similar methods */
-    public static void register(Activity activity, Uri contactUri) {
+    /**
+     * Register NFC handler. This should be called in activities' onCreate(), or similar methods.
+     * The returned handler must be unregistered once the activity does not need it anymore.
+     *
+     * @return the handler, or null if NFC is not available on this device
+     */
+    public static NfcHandler register(Activity activity, Uri contactUri) {
         NfcAdapter adapter = NfcAdapter.getDefaultAdapter(activity.getApplicationContext());
         if (adapter == null) {
-            return;  // NFC not available on this device
+            return null;  // NFC not available on this device
         }
-        adapter.setNdefPushMessageCallback(new NfcHandler(activity, contactUri), activity);
+        final NfcHandler handler = new NfcHandler(activity, contactUri);
+        adapter.setNdefPushMessageCallback(handler, activity);
+        if (contactUri != null) {
+            synchronized (sRegistrationCounts) {
+                final Integer count = sRegistrationCounts.get(handler.mLookupKey);
+                sRegistrationCounts.put(handler.mLookupKey, count == null ? 1 : count + 1);
+            }
+            handler.mRegistered = true;
+            activity.getContentResolver().registerContentObserver(contactUri, true,
+                    handler.mObserver);
+            if (sMessageCache.get(handler.mLookupKey) == null) {
+                handler.render();
+            }
+        }
+        return handler;
     }
 
     public NfcHandler(Context context, Uri contactUri) {
         mContext = context;
         mContactUri = contactUri;
+        mLookupKey = contactUri == null ? null
+                : Uri.encode(contactUri.getPathSegments().get(2));
     }
 
-    @Override
-    public NdefMessage createNdefMessage(NfcEvent event) {
-        ContentResolver resolver = mContext.getContentResolver();
-        if (mContactUri != null) {
-            final String lookupKey = Uri.encode(mContactUri.getPathSegments().get(2));
-            final Uri shareUri;
-            // TODO find out where to get this constant from, or find another way
-            // of determining this.
-            if (lookupKey.equals(PROFILE_LOOKUP_KEY)) {
-                shareUri = Profile.CONTENT_VCARD_URI.buildUpon().
-                appendQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO, "true").
-                build();
-            } else {
-                shareUri = Contacts.CONTENT_VCARD_URI.buildUpon().
-                appendPath(lookupKey).
-                appendQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO, "true").
-                build();
+    /**
+     * Stops following the changes of the contact. Unless another handler still watches the
+     * contact, the message rendered for it is dropped, since nothing would notice it going out
+     * of date.
+     */
+    public void unregister() {
+        mHandler.removeCallbacks(mRenderRunnable);
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        // Also drop a message still being rendered
+        mGeneration.incrementAndGet();
+        if (!mRegistered) {
+            return;
+        }
+        mRegistered = false;
+        synchronized (sRegistrationCounts) {
+            final Integer count = sRegistrationCounts.get(mLookupKey);
+            if (count != null && count > 1) {
+                sRegistrationCounts.put(mLookupKey, count - 1);
+                return;
             }
-            ByteArrayOutputStream ndefBytes = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int r;
-            try {
-                InputStream vcardInputStream = resolver.openInputStream(shareUri);
-                while ((r = vcardInputStream.read(buffer)) > 0) {
-                    ndefBytes.write(buffer, 0, r);
+            sRegistrationCounts.remove(mLookupKey);
+            sMessageCache.remove(mLookupKey);
+        }
+    }
+
+    private void render() {
+        final int generation = mGeneration.get();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final NdefMessage message = buildNdefMessage();
+                // Drop the message if the contacts changed while it was rendered
+                if (message != null && generation == mGeneration.get()) {
+                    sMessageCache.put(mLookupKey, message);
                 }
+            }
+        });
+    }
 
-                NdefRecord record = NdefRecord.createMime("text/x-vcard", ndefBytes.toByteArray());
-                return new NdefMessage(record);
-            } catch (IOException e) {
-                Log.e(TAG, "IOException creating vcard.");
-                return null;
+    @Override
+    public NdefMessage createNdefMessage(NfcEvent event) {
+        if (mContactUri != null) {
+            final NdefMessage message = sMessageCache.get(mLookupKey);
+            if (message != null) {
+                return message;
             }
+            return buildNdefMessage();
         } else {
             Log.w(TAG, "No contact URI to share.");
             return null;
         }
     }
+
+    private NdefMessage buildNdefMessage() {
+        ContentResolver resolver = mContext.getContentResolver();
+        final Uri shareUri;
+        // TODO find out where to get this constant from, or find another way
+        // of determining this.
+        if (mLookupKey.equals(PROFILE_LOOKUP_KEY)) {
+            shareUri = Profile.CONTENT_VCARD_URI.buildUpon().
+            appendQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO, "true").
+            build();
+        } else {
+            shareUri = Contacts.CONTENT_VCARD_URI.buildUpon().
+            appendPath(mLookupKey).
+            appendQueryParameter(Contacts.QUERY_PARAMETER_VCARD_NO_PHOTO, "true").
+            build();
+        }
+        ByteArrayOutputStream ndefBytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int r;
+        InputStream vcardInputStream = null;
+        try {
+            vcardInputStream = resolver.openInputStream(shareUri);
+            while ((r = vcardInputStream.read(buffer)) > 0) {
+                ndefBytes.write(buffer, 0, r);
+            }
+
+            NdefRecord record = NdefRecord.createMime("text/x-vcard", ndefBytes.toByteArray());
+            return new NdefMessage(record);
+        } catch (IOException e) {
+            Log.e(TAG, "IOException creating vcard.");
+            return null;
+        } finally {
+            Closeables.closeQuietly(vcardInputStream);
+        }
+    }
 }
@@ -59,6 +59,7 @@ import com.android.contacts.common.list.OnPhoneNumberPickerActionListener;
 import com.android.contacts.list.OnPostalAddressPickerActionListener;
 import com.android.contacts.common.list.PhoneNumberPickerFragment;
 import com.android.contacts.list.PostalAddressPickerFragment;
+import com.android.contacts.util.SearchQueryScheduler;
 import com.google.common.collect.Sets;
 
 import java.util.Set;
@@ -89,6 +90,17 @@ public class ContactSelectionActivity extends ContactsActivity
     private SearchView mSearchView;
     private View mSearchViewContainer;
 
+    private final SearchQueryScheduler mSearchQueryScheduler = new SearchQueryScheduler(
+            new SearchQueryScheduler.Listener() {
+        @Override
+        public void onSearchQuery(String query) {
+            if (mListFragment != null) {
+                mListFragment.setQueryString(query, true);
+                mSearchQueryScheduler.setAdapter(mListFragment.getAdapter());
+            }
+        }
+    });
+
     public ContactSelectionActivity() {
         mIntentResolver = new ContactsIntentResolver(this);
     }
@@ -564,7 +576,7 @@ public class ContactSelectionActivity extends ContactsActivity
 
     @Override
     public boolean onQueryTextChange(String newText) {
-        mListFragment.setQueryString(newText, true);
+        mSearchQueryScheduler.schedule(newText);
         return false;
     }
 
@@ -668,6 +680,12 @@ public class ContactSelectionActivity extends ContactsActivity
         return true;
     }
 
+    @Override
+    protected void onDestroy() {
+        mSearchQueryScheduler.cancel();
+        super.onDestroy();
+    }
+
     @Override
     public void onBackPressed() {
         if (mIsSearchMode) {
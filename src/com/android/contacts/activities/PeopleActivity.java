@@ -80,6 +80,7 @@ import com.android.contacts.util.AccountPromptUtils;
 import com.android.contacts.common.util.Constants;
 import com.android.contacts.util.DialogManager;
 import com.android.contacts.util.HelpUtils;
+import com.android.contacts.util.SearchQueryScheduler;
 
 import java.util.Locale;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -118,6 +119,16 @@ public class PeopleActivity extends ContactsActivity implements
     private ProviderStatusWatcher mProviderStatusWatcher;
     private ProviderStatusWatcher.Status mProviderStatus;
 
+    private final SearchQueryScheduler mSearchQueryScheduler = new SearchQueryScheduler(
+            new SearchQueryScheduler.Listener() {
+        @Override
+        public void onSearchQuery(String query) {
+            mAllFragment.setQueryString(query, true);
+            mAllFragment.setVisibleScrollbarEnabled(!mAllFragment.isSearchMode());
+            mSearchQueryScheduler.setAdapter(mAllFragment.getAdapter());
+        }
+    });
+
     private boolean mOptionsMenuContactsAvailable;
 
     /**
@@ -430,6 +441,7 @@ public class PeopleActivity extends ContactsActivity implements
     @Override
     protected void onDestroy() {
         mProviderStatusWatcher.removeListener(this);
+        mSearchQueryScheduler.cancel();
 
         // Some of variables will be null if this Activity redirects Intent.
         // See also onCreate() or other methods called during the Activity's initialization.
@@ -525,7 +537,8 @@ public class PeopleActivity extends ContactsActivity implements
                 break;
             case ActionBarAdapter.Listener.Action.CHANGE_SEARCH_QUERY:
                 final String queryString = mActionBarAdapter.getQueryString();
-                setQueryTextToFragment(queryString);
+                // Typed queries are run once the user pauses typing
+                mSearchQueryScheduler.schedule(queryString);
                 updateDebugOptionsVisibility(
                         ENABLE_DEBUG_OPTIONS_HIDDEN_CODE.equals(queryString));
                 break;
@@ -778,8 +791,7 @@ public class PeopleActivity extends ContactsActivity implements
     }
 
     private void setQueryTextToFragment(String query) {
-        mAllFragment.setQueryString(query, true);
-        mAllFragment.setVisibleScrollbarEnabled(!mAllFragment.isSearchMode());
+        mSearchQueryScheduler.dispatchNow(query);
     }
 
     private void configureContactListFragmentForRequest() {
@@ -20,11 +20,14 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
 import android.os.Process;
+import android.os.SystemClock;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Nickname;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
@@ -37,11 +40,13 @@ import android.provider.ContactsContract.Data;
 import android.provider.ContactsContract.RawContacts;
 import android.text.TextUtils;
 
+import com.android.contacts.R;
 import com.android.contacts.common.model.ValuesDelta;
 import com.google.common.collect.Lists;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -67,16 +72,32 @@ public class AggregationSuggestionEngine extends HandlerThread {
         }
     }
 
+    /**
+     * An immutable suggestion, fully parsed and with its photo decoded on the background thread.
+     */
     public static final class Suggestion {
 
-        public long contactId;
-        public String lookupKey;
-        public String name;
-        public String phoneNumber;
-        public String emailAddress;
-        public String nickname;
-        public byte[] photo;
-        public List<RawContact> rawContacts;
+        public final long contactId;
+        public final String lookupKey;
+        public final String name;
+        public final String phoneNumber;
+        public final String emailAddress;
+        public final String nickname;
+        public final Bitmap photo;
+        public final List<RawContact> rawContacts;
+
+        private Suggestion(long contactId, String lookupKey, String name, String phoneNumber,
+                String emailAddress, String nickname, Bitmap photo,
+                List<RawContact> rawContacts) {
+            this.contactId = contactId;
+            this.lookupKey = lookupKey;
+            this.name = name;
+            this.phoneNumber = phoneNumber;
+            this.emailAddress = emailAddress;
+            this.nickname = nickname;
+            this.photo = photo;
+            this.rawContacts = Collections.unmodifiableList(rawContacts);
+        }
 
         @Override
         public String toString() {
@@ -93,16 +114,39 @@ public class AggregationSuggestionEngine extends HandlerThread {
 
         @Override
         public void onChange(boolean selfChange) {
-            scheduleSuggestionLookup();
+            if (SystemClock.uptimeMillis() < mOwnChangeDeadlineMillis) {
+                // Most likely the editor's own change. Changing the contact being edited cannot
+                // change which other contacts are suggested for it, since the suggestion query
+                // excludes it.
+                return;
+            }
+            scheduleContentChangeLookup();
         }
     }
 
     private static final int MESSAGE_RESET = 0;
     private static final int MESSAGE_NAME_CHANGE = 1;
-    private static final int MESSAGE_DATA_CURSOR = 2;
+    private static final int MESSAGE_SUGGESTIONS = 2;
+    private static final int MESSAGE_CONTENT_CHANGE = 3;
 
     private static final long SUGGESTION_LOOKUP_DELAY_MILLIS = 300;
 
+    /**
+     * Bounds for the delay applied to lookups triggered by provider change notifications.
+     * The delay doubles while notifications keep arriving (e.g. during an account sync) and
+     * falls back to the minimum once they quiet down.
+     */
+    private static final long CONTENT_CHANGE_MIN_DELAY_MILLIS = SUGGESTION_LOOKUP_DELAY_MILLIS;
+    private static final long CONTENT_CHANGE_MAX_DELAY_MILLIS = 10000;
+
+    /**
+     * How long change notifications are attributed to a change of the contact being edited,
+     * while the change is in flight and once it completed. The provider notifies its whole
+     * authority, so notifications can't be told apart by URI.
+     */
+    private static final long OWN_CHANGE_TIMEOUT_MILLIS = 5000;
+    private static final long OWN_CHANGE_GRACE_MILLIS = 1000;
+
     private static final int MAX_SUGGESTION_COUNT = 3;
 
     private final Context mContext;
@@ -111,19 +155,31 @@ public class AggregationSuggestionEngine extends HandlerThread {
 
     private Handler mMainHandler;
     private Handler mHandler;
-    private long mContactId;
+    private volatile long mContactId;
     private Listener mListener;
-    private Cursor mDataCursor;
+    private List<Suggestion> mSuggestions = Collections.emptyList();
     private ContentObserver mContentObserver;
-    private Uri mSuggestionsUri;
+    private volatile Uri mSuggestionsUri;
+
+    // Only accessed on the background thread
+    private long mContentChangeDelayMillis = CONTENT_CHANGE_MIN_DELAY_MILLIS;
+    private long mLastContentChangeLookupMillis;
+
+    // Change notifications are ignored until then, see onOwnChangeRequested()
+    private volatile long mOwnChangeDeadlineMillis;
+
+    private final int mPhotoSize;
 
     public AggregationSuggestionEngine(Context context) {
         super("AggregationSuggestions", Process.THREAD_PRIORITY_BACKGROUND);
         mContext = context.getApplicationContext();
+        mPhotoSize = mContext.getResources().getDimensionPixelSize(
+                R.dimen.aggregation_suggestion_photo_size);
         mMainHandler = new Handler() {
             @Override
+            @SuppressWarnings("unchecked")
             public void handleMessage(Message msg) {
-                AggregationSuggestionEngine.this.deliverNotification((Cursor) msg.obj);
+                AggregationSuggestionEngine.this.deliverNotification((List<Suggestion>) msg.obj);
             }
         };
     }
@@ -153,10 +209,7 @@ public class AggregationSuggestionEngine extends HandlerThread {
 
     @Override
     public boolean quit() {
-        if (mDataCursor != null) {
-            mDataCursor.close();
-        }
-        mDataCursor = null;
+        mSuggestions = Collections.emptyList();
         if (mContentObserver != null) {
             mContext.getContentResolver().unregisterContentObserver(mContentObserver);
             mContentObserver = null;
@@ -164,9 +217,28 @@ public class AggregationSuggestionEngine extends HandlerThread {
         return super.quit();
     }
 
+    /**
+     * Called when the editor sends a change of the contact being edited to the provider. The
+     * change notifications that follow are ignored until {@link #onOwnChangeCompleted} is
+     * called, or for a few seconds if it isn't.
+     */
+    public void onOwnChangeRequested() {
+        mOwnChangeDeadlineMillis = SystemClock.uptimeMillis() + OWN_CHANGE_TIMEOUT_MILLIS;
+        getHandler().removeMessages(MESSAGE_CONTENT_CHANGE);
+    }
+
+    /**
+     * Called once a change requested with {@link #onOwnChangeRequested} was applied. Its
+     * notifications may still be on their way, so they are ignored for a short while longer.
+     */
+    public void onOwnChangeCompleted() {
+        mOwnChangeDeadlineMillis = SystemClock.uptimeMillis() + OWN_CHANGE_GRACE_MILLIS;
+    }
+
     public void reset() {
         Handler handler = getHandler();
         handler.removeMessages(MESSAGE_NAME_CHANGE);
+        handler.removeMessages(MESSAGE_CONTENT_CHANGE);
         handler.sendEmptyMessage(MESSAGE_RESET);
     }
 
@@ -188,6 +260,8 @@ public class AggregationSuggestionEngine extends HandlerThread {
     protected void scheduleSuggestionLookup() {
         Handler handler = getHandler();
         handler.removeMessages(MESSAGE_NAME_CHANGE);
+        // The name lookup below supersedes any pending change-triggered lookup
+        handler.removeMessages(MESSAGE_CONTENT_CHANGE);
 
         if (mSuggestionsUri == null) {
             return;
@@ -197,6 +271,28 @@ public class AggregationSuggestionEngine extends HandlerThread {
         handler.sendMessageDelayed(msg, SUGGESTION_LOOKUP_DELAY_MILLIS);
     }
 
+    /**
+     * Schedules a lookup in response to a provider change notification. Notifications that
+     * arrive while a lookup is already pending are folded into it; if they keep arriving
+     * right after a change-triggered lookup, the delay backs off exponentially.
+     */
+    private void scheduleContentChangeLookup() {
+        Handler handler = getHandler();
+        if (mSuggestionsUri == null || handler.hasMessages(MESSAGE_NAME_CHANGE)
+                || handler.hasMessages(MESSAGE_CONTENT_CHANGE)) {
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        if (now - mLastContentChangeLookupMillis < mContentChangeDelayMillis) {
+            mContentChangeDelayMillis = Math.min(
+                    mContentChangeDelayMillis * 2, CONTENT_CHANGE_MAX_DELAY_MILLIS);
+        } else {
+            mContentChangeDelayMillis = CONTENT_CHANGE_MIN_DELAY_MILLIS;
+        }
+        handler.sendEmptyMessageDelayed(MESSAGE_CONTENT_CHANGE, mContentChangeDelayMillis);
+    }
+
     private Uri buildAggregationSuggestionUri(ValuesDelta values) {
         StringBuilder nameSb = new StringBuilder();
         appendValue(nameSb, values, StructuredName.PREFIX);
@@ -252,6 +348,13 @@ public class AggregationSuggestionEngine extends HandlerThread {
             case MESSAGE_NAME_CHANGE:
                 loadAggregationSuggestions((Uri) msg.obj);
                 break;
+            case MESSAGE_CONTENT_CHANGE:
+                mLastContentChangeLookupMillis = SystemClock.uptimeMillis();
+                final Uri uri = mSuggestionsUri;
+                if (uri != null) {
+                    loadAggregationSuggestions(uri);
+                }
+                break;
         }
     }
 
@@ -266,6 +369,8 @@ public class AggregationSuggestionEngine extends HandlerThread {
                     + Photo.CONTENT_ITEM_TYPE + "')"
                 + " AND " + Data.CONTACT_ID + " IN (";
 
+        public static final String SELECTION_SUFFIX = ")";
+
         public static final String[] COLUMNS = {
             Data._ID,
             Data.CONTACT_ID,
@@ -314,22 +419,32 @@ public class AggregationSuggestionEngine extends HandlerThread {
                 return;
             }
 
-            StringBuilder sb = new StringBuilder(DataQuery.SELECTION_PREFIX);
-            int count = mSuggestedContactIds.length;
+            // The suggestions URI only exposes contact columns, so the data rows of the
+            // suggested contacts have to be fetched separately.
+            final int count = mSuggestedContactIds.length;
+            final StringBuilder sb = new StringBuilder(DataQuery.SELECTION_PREFIX);
+            final String[] selectionArgs = new String[count];
             for (int i = 0; i < count; i++) {
                 if (i > 0) {
                     sb.append(',');
                 }
-                sb.append(mSuggestedContactIds[i]);
+                sb.append('?');
+                selectionArgs[i] = String.valueOf(mSuggestedContactIds[i]);
             }
-            sb.append(')');
-            sb.toString();
+            sb.append(DataQuery.SELECTION_SUFFIX);
 
-            Cursor dataCursor = contentResolver.query(Data.CONTENT_URI,
-                    DataQuery.COLUMNS, sb.toString(), null, Data.CONTACT_ID);
-            if (dataCursor != null) {
-                mMainHandler.sendMessage(mMainHandler.obtainMessage(MESSAGE_DATA_CURSOR, dataCursor));
+            final Cursor dataCursor = contentResolver.query(Data.CONTENT_URI,
+                    DataQuery.COLUMNS, sb.toString(), selectionArgs, Data.CONTACT_ID);
+            if (dataCursor == null) {
+                return;
             }
+            final List<Suggestion> suggestions;
+            try {
+                suggestions = buildSuggestions(dataCursor);
+            } finally {
+                dataCursor.close();
+            }
+            mMainHandler.sendMessage(mMainHandler.obtainMessage(MESSAGE_SUGGESTIONS, suggestions));
         } finally {
             cursor.close();
         }
@@ -360,78 +475,135 @@ public class AggregationSuggestionEngine extends HandlerThread {
         return changed;
     }
 
-    protected void deliverNotification(Cursor dataCursor) {
-        if (mDataCursor != null) {
-            mDataCursor.close();
-        }
-        mDataCursor = dataCursor;
+    protected void deliverNotification(List<Suggestion> suggestions) {
+        mSuggestions = suggestions;
         if (mListener != null) {
             mListener.onAggregationSuggestionChange();
         }
     }
 
     public int getSuggestedContactCount() {
-        return mDataCursor != null ? mDataCursor.getCount() : 0;
+        return mSuggestions.size();
     }
 
+    /**
+     * Returns the suggestions delivered by the most recent lookup. The list is immutable and
+     * is only replaced, never modified, so it can be handed to adapters directly.
+     */
     public List<Suggestion> getSuggestions() {
-        ArrayList<Suggestion> list = Lists.newArrayList();
-        if (mDataCursor != null) {
-            Suggestion suggestion = null;
-            long currentContactId = -1;
-            mDataCursor.moveToPosition(-1);
-            while (mDataCursor.moveToNext()) {
-                long contactId = mDataCursor.getLong(DataQuery.CONTACT_ID);
-                if (contactId != currentContactId) {
-                    suggestion = new Suggestion();
-                    suggestion.contactId = contactId;
-                    suggestion.name = mDataCursor.getString(DataQuery.DISPLAY_NAME);
-                    suggestion.lookupKey = mDataCursor.getString(DataQuery.LOOKUP_KEY);
-                    suggestion.rawContacts = Lists.newArrayList();
-                    list.add(suggestion);
-                    currentContactId = contactId;
-                }
+        return mSuggestions;
+    }
 
-                long rawContactId = mDataCursor.getLong(DataQuery.RAW_CONTACT_ID);
-                if (!containsRawContact(suggestion, rawContactId)) {
-                    RawContact rawContact = new RawContact();
-                    rawContact.rawContactId = rawContactId;
-                    rawContact.accountName = mDataCursor.getString(DataQuery.ACCOUNT_NAME);
-                    rawContact.accountType = mDataCursor.getString(DataQuery.ACCOUNT_TYPE);
-                    rawContact.dataSet = mDataCursor.getString(DataQuery.DATA_SET);
-                    suggestion.rawContacts.add(rawContact);
+    /**
+     * Accumulates the data rows of one suggested contact while parsing the data cursor.
+     */
+    private static final class SuggestionBuilder {
+        long contactId;
+        String lookupKey;
+        String name;
+        String phoneNumber;
+        String emailAddress;
+        String nickname;
+        byte[] photo;
+        final ArrayList<RawContact> rawContacts = Lists.newArrayList();
+
+        boolean containsRawContact(long rawContactId) {
+            final int count = rawContacts.size();
+            for (int i = 0; i < count; i++) {
+                if (rawContacts.get(i).rawContactId == rawContactId) {
+                    return true;
                 }
+            }
+            return false;
+        }
+    }
 
-                String mimetype = mDataCursor.getString(DataQuery.MIMETYPE);
-                if (Phone.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                    String data = mDataCursor.getString(DataQuery.DATA1);
-                    int superprimary = mDataCursor.getInt(DataQuery.IS_SUPERPRIMARY);
-                    if (!TextUtils.isEmpty(data)
-                            && (superprimary != 0 || suggestion.phoneNumber == null)) {
-                        suggestion.phoneNumber = data;
-                    }
-                } else if (Email.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                    String data = mDataCursor.getString(DataQuery.DATA1);
-                    int superprimary = mDataCursor.getInt(DataQuery.IS_SUPERPRIMARY);
-                    if (!TextUtils.isEmpty(data)
-                            && (superprimary != 0 || suggestion.emailAddress == null)) {
-                        suggestion.emailAddress = data;
-                    }
-                } else if (Nickname.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                    String data = mDataCursor.getString(DataQuery.DATA1);
-                    if (!TextUtils.isEmpty(data)) {
-                        suggestion.nickname = data;
-                    }
-                } else if (Photo.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                    long dataId = mDataCursor.getLong(DataQuery.ID);
-                    long photoId = mDataCursor.getLong(DataQuery.PHOTO_ID);
-                    if (dataId == photoId && !mDataCursor.isNull(DataQuery.PHOTO)) {
-                        suggestion.photo = mDataCursor.getBlob(DataQuery.PHOTO);
-                    }
+    /**
+     * Parses the data cursor, which must be sorted by contact id, into suggestions. Called on
+     * the background thread.
+     */
+    private List<Suggestion> buildSuggestions(Cursor dataCursor) {
+        final ArrayList<SuggestionBuilder> builders = Lists.newArrayList();
+        SuggestionBuilder suggestion = null;
+        long currentContactId = -1;
+        dataCursor.moveToPosition(-1);
+        while (dataCursor.moveToNext()) {
+            long contactId = dataCursor.getLong(DataQuery.CONTACT_ID);
+            if (contactId != currentContactId) {
+                suggestion = new SuggestionBuilder();
+                suggestion.contactId = contactId;
+                suggestion.name = dataCursor.getString(DataQuery.DISPLAY_NAME);
+                suggestion.lookupKey = dataCursor.getString(DataQuery.LOOKUP_KEY);
+                builders.add(suggestion);
+                currentContactId = contactId;
+            }
+
+            long rawContactId = dataCursor.getLong(DataQuery.RAW_CONTACT_ID);
+            if (!suggestion.containsRawContact(rawContactId)) {
+                RawContact rawContact = new RawContact();
+                rawContact.rawContactId = rawContactId;
+                rawContact.accountName = dataCursor.getString(DataQuery.ACCOUNT_NAME);
+                rawContact.accountType = dataCursor.getString(DataQuery.ACCOUNT_TYPE);
+                rawContact.dataSet = dataCursor.getString(DataQuery.DATA_SET);
+                suggestion.rawContacts.add(rawContact);
+            }
+
+            String mimetype = dataCursor.getString(DataQuery.MIMETYPE);
+            if (Phone.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                String data = dataCursor.getString(DataQuery.DATA1);
+                int superprimary = dataCursor.getInt(DataQuery.IS_SUPERPRIMARY);
+                if (!TextUtils.isEmpty(data)
+                        && (superprimary != 0 || suggestion.phoneNumber == null)) {
+                    suggestion.phoneNumber = data;
+                }
+            } else if (Email.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                String data = dataCursor.getString(DataQuery.DATA1);
+                int superprimary = dataCursor.getInt(DataQuery.IS_SUPERPRIMARY);
+                if (!TextUtils.isEmpty(data)
+                        && (superprimary != 0 || suggestion.emailAddress == null)) {
+                    suggestion.emailAddress = data;
+                }
+            } else if (Nickname.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                String data = dataCursor.getString(DataQuery.DATA1);
+                if (!TextUtils.isEmpty(data)) {
+                    suggestion.nickname = data;
+                }
+            } else if (Photo.CONTENT_ITEM_TYPE.equals(mimetype)) {
+                long dataId = dataCursor.getLong(DataQuery.ID);
+                long photoId = dataCursor.getLong(DataQuery.PHOTO_ID);
+                if (dataId == photoId && !dataCursor.isNull(DataQuery.PHOTO)) {
+                    suggestion.photo = dataCursor.getBlob(DataQuery.PHOTO);
                 }
             }
         }
-        return list;
+
+        final ArrayList<Suggestion> list = Lists.newArrayListWithCapacity(builders.size());
+        for (SuggestionBuilder builder : builders) {
+            list.add(new Suggestion(builder.contactId, builder.lookupKey, builder.name,
+                    builder.phoneNumber, builder.emailAddress, builder.nickname,
+                    decodeThumbnail(builder.photo), builder.rawContacts));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Decodes the photo blob, subsampled to roughly the size of the suggestion photo view.
+     */
+    private Bitmap decodeThumbnail(byte[] photo) {
+        if (photo == null) {
+            return null;
+        }
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(photo, 0, photo.length, options);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= mPhotoSize
+                && options.outHeight / (sampleSize * 2) >= mPhotoSize) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeByteArray(photo, 0, photo.length, options);
     }
 
     public boolean containsRawContact(Suggestion suggestion, long rawContactId) {
@@ -17,7 +17,6 @@
 package com.android.contacts.editor;
 
 import android.content.Context;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.provider.ContactsContract.Contacts;
 import android.util.AttributeSet;
@@ -85,8 +84,7 @@ public class AggregationSuggestionView extends LinearLayout {
         mRawContacts = suggestion.rawContacts;
         ImageView photo = (ImageView) findViewById(R.id.aggregation_suggestion_photo);
         if (suggestion.photo != null) {
-            photo.setImageBitmap(BitmapFactory.decodeByteArray(
-                    suggestion.photo, 0, suggestion.photo.length));
+            photo.setImageBitmap(suggestion.photo);
         } else {
             photo.setImageDrawable(ContactPhotoManager.getDefaultAvatarDrawableForContact(
                     getResources(), false, null));
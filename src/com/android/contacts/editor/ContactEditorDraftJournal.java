@@ -0,0 +1,703 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.contacts.editor;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.provider.ContactsContract.Data;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.android.contacts.common.model.AccountTypeManager;
+import com.android.contacts.common.model.RawContactDelta;
+import com.android.contacts.common.model.RawContactDeltaList;
+import com.android.contacts.common.model.RawContactModifier;
+import com.android.contacts.common.model.ValuesDelta;
+import com.android.contacts.common.model.account.AccountType;
+import com.android.contacts.common.model.dataitem.DataKind;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of the changes made in the contact editor. Each record is a snapshot of
+ * the modified values of one data row, so a later record for the same row supersedes the
+ * earlier ones and the journal can be compacted by keeping only the last record per row.
+ * <p>
+ * Records are buffered in memory and appended by {@link #flush} to a small file in the app's
+ * files dir, one file per contact. After a restart, {@link #restore} reads them back and
+ * {@link #replay} applies them to a freshly loaded {@link RawContactDeltaList}, which lets the
+ * editor avoid parceling the complete state of large contacts.
+ * <p>
+ * The files are read and written on a single background thread, so that the UI thread never
+ * waits for the disk and the files are accessed in the order of the calls, across editors.
+ * All methods must be called on the UI thread.
+ */
+public class ContactEditorDraftJournal {
+    private static final String TAG = "ContactEditorDraftJournal";
+
+    private static final String DIR_NAME = "contact_editor_drafts";
+    private static final String FILE_PREFIX = "draft_";
+
+    /** Drafts that were not restored within this delay are abandoned, and deleted. */
+    private static final long MAX_DRAFT_AGE_MS = DateUtils.DAY_IN_MILLIS;
+
+    private static final int MAGIC = 0x43454a31; // "CEJ1"
+    private static final int VERSION = 1;
+
+    private static final byte RECORD_ENTRY = 1;
+    private static final byte RECORD_DELETE = 2;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_LONG = 2;
+    private static final byte VALUE_INTEGER = 3;
+    private static final byte VALUE_BOOLEAN = 4;
+    private static final byte VALUE_DOUBLE = 5;
+    private static final byte VALUE_BLOB = 6;
+
+    /** The journal is compacted once it holds this many superseded records. */
+    private static final int COMPACTION_THRESHOLD = 64;
+
+    private static final ThreadPoolExecutor sFileExecutor = new ThreadPoolExecutor(
+            1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sFileExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Callback of {@link #restore}, called on the UI thread.
+     */
+    public interface RestoreListener {
+        public void onDraftJournalRestored(boolean restored);
+    }
+
+    /**
+     * A change of one data row. Records are immutable, as they are written to the file in the
+     * background while the editor goes on.
+     */
+    private static final class Record {
+        final byte type;
+        final long rawContactId;
+        final long dataId;
+        final ContentValues values;
+
+        Record(byte type, long rawContactId, long dataId, ContentValues values) {
+            this.type = type;
+            this.rawContactId = rawContactId;
+            this.dataId = dataId;
+            this.values = values;
+        }
+
+        String getRowKey() {
+            return rawContactId + ":" + dataId;
+        }
+
+        /**
+         * Returns true if replaying this record leaves the row in the state of the given
+         * entry.
+         */
+        boolean holds(ValuesDelta entry) {
+            if (entry.isDelete()) {
+                return type == RECORD_DELETE;
+            }
+            if (type != RECORD_ENTRY) {
+                return false;
+            }
+            final ContentValues after = entry.getAfter();
+            for (String key : after.keySet()) {
+                if (!key.equals(Data._ID) && (!values.containsKey(key)
+                        || !valueEquals(after.get(key), values.get(key)))) {
+                    return false;
+                }
+            }
+            for (String key : values.keySet()) {
+                if (!key.equals(Data._ID) && !after.containsKey(key)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final File mDir;
+    private final Handler mHandler = new Handler();
+    private final ArrayList<Record> mRecords = Lists.newArrayList();
+    private Uri mLookupUri;
+    private File mFile;
+    private int mFlushedCount;
+    private boolean mFileValid;
+    private boolean mRestoring;
+    private int mRestoringRecordCount;
+
+    // Set by the background thread. A journal that failed to be written is not used anymore.
+    private volatile boolean mWriteFailed;
+
+    public ContactEditorDraftJournal(Context context) {
+        mDir = new File(context.getFilesDir(), DIR_NAME);
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deleteAbandonedDrafts(mDir);
+            }
+        });
+    }
+
+    /**
+     * Discards all records, in memory and on disk, and starts a new journal for the given
+     * contact.
+     */
+    public void reset(Uri lookupUri) {
+        if (mFile != null) {
+            deleteFile(mFile);
+        }
+        setLookupUri(lookupUri);
+        if (mFile != null) {
+            // Left over by an editor that was not restored
+            deleteFile(mFile);
+        }
+    }
+
+    private void setLookupUri(Uri lookupUri) {
+        mLookupUri = lookupUri;
+        mFile = lookupUri == null ? null : new File(mDir,
+                FILE_PREFIX + Integer.toHexString(lookupUri.toString().hashCode()));
+        mRecords.clear();
+        mFlushedCount = 0;
+        mFileValid = false;
+        mRestoring = false;
+    }
+
+    /**
+     * Records the current values of the given data row.
+     */
+    public void recordEntry(RawContactDelta state, ValuesDelta entry) {
+        if (state == null || entry == null || entry.getId() == null) {
+            return;
+        }
+        final ContentValues after = entry.getAfter();
+        if (after == null || after.size() == 0) {
+            return;
+        }
+        mRecords.add(new Record(RECORD_ENTRY, state.getRawContactId(), entry.getId(),
+                new ContentValues(after)));
+    }
+
+    /**
+     * Records that the given data row was deleted.
+     */
+    public void recordDelete(RawContactDelta state, ValuesDelta entry) {
+        if (state == null || entry == null || entry.getId() == null) {
+            return;
+        }
+        mRecords.add(new Record(RECORD_DELETE, state.getRawContactId(), entry.getId(), null));
+    }
+
+    /**
+     * Schedules the records added since the last flush to be appended to the journal file. If
+     * the journal has accumulated too many superseded records, it is compacted and rewritten
+     * instead.
+     *
+     * @return false if the journal can't be written, in which case it must not be relied upon.
+     */
+    public boolean flush() {
+        if (mFile == null || mRestoring || mWriteFailed) {
+            return false;
+        }
+        if (mFileValid && mFlushedCount == mRecords.size()) {
+            return true;
+        }
+        if (mFileValid && !compactRecords(COMPACTION_THRESHOLD)) {
+            scheduleAppend(Lists.newArrayList(mRecords.subList(mFlushedCount, mRecords.size())));
+        } else {
+            compactRecords(0);
+            scheduleRewrite();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of records the journal file holds once the pending writes are done.
+     */
+    public int getRecordCount() {
+        return mRestoring ? mRestoringRecordCount : mRecords.size();
+    }
+
+    /**
+     * Reads back, in the background, the journal written for the given contact.
+     *
+     * @param recordCount the {@link #getRecordCount} of the journal when it was flushed. A
+     *     journal holding less records is incomplete and not restored.
+     */
+    public void restore(final Uri lookupUri, final int recordCount,
+            final RestoreListener listener) {
+        setLookupUri(lookupUri);
+        mRestoring = true;
+        mRestoringRecordCount = recordCount;
+        final File file = mFile;
+        if (file == null) {
+            onRestored(file, null, listener);
+            return;
+        }
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ArrayList<Record> records = readFile(file, lookupUri);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRestored(file, records != null && records.size() >= recordCount
+                                ? records : null, listener);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onRestored(File file, List<Record> records, RestoreListener listener) {
+        if (!mRestoring || file != mFile) {
+            // Reset since
+            return;
+        }
+        mRestoring = false;
+        if (records != null) {
+            mRecords.addAll(records);
+            // The file may end in a partial record, so the next flush rewrites it rather than
+            // appending after it.
+            mFlushedCount = mRecords.size();
+        }
+        listener.onDraftJournalRestored(records != null);
+    }
+
+    /**
+     * Returns true while {@link #restore} is reading the journal.
+     */
+    public boolean isRestoring() {
+        return mRestoring;
+    }
+
+    /**
+     * Applies the recorded changes to a freshly loaded state. Inserted rows are recreated with
+     * new ids, which are written back into the journal so that later records refer to them.
+     */
+    public void replay(RawContactDeltaList state) {
+        apply(state);
+        compactRecords(0);
+        scheduleRewrite();
+    }
+
+    /**
+     * Returns true if the latest record of every row changed in the given state holds the
+     * current values of the row, i.e. if no change escaped the journal. Changes made outside
+     * of the field editors, such as group memberships, photos or joins, are not recorded.
+     */
+    public boolean covers(RawContactDeltaList state, AccountTypeManager accountTypes) {
+        if (state.isMarkedForJoining() || state.isMarkedForSplitting()) {
+            return false;
+        }
+        final HashMap<String, Record> latestRecords = Maps.newHashMap();
+        for (Record record : mRecords) {
+            latestRecords.put(record.getRowKey(), record);
+        }
+        for (RawContactDelta delta : state) {
+            final ValuesDelta values = delta.getValues();
+            if (values.isInsert() || values.isUpdate() || values.isDelete()) {
+                return false;
+            }
+            final AccountType type = delta.getAccountType(accountTypes);
+            final long rawContactId = delta.getRawContactId();
+            for (String mimeType : delta.getMimeTypes()) {
+                final DataKind kind = type == null ? null : type.getKindForMimetype(mimeType);
+                for (ValuesDelta entry : delta.getMimeEntries(mimeType)) {
+                    final boolean changed = entry.isInsert()
+                            ? !isPlaceholder(entry, kind)
+                            : entry.isUpdate() || entry.isDelete();
+                    if (!changed) {
+                        continue;
+                    }
+                    final Record record = entry.getId() == null
+                            ? null : latestRecords.get(rawContactId + ":" + entry.getId());
+                    if (record == null || !record.holds(entry)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void apply(RawContactDeltaList state) {
+        final HashMap<Long, ValuesDelta> inserted = Maps.newHashMap();
+        for (Record record : mRecords) {
+            final RawContactDelta rawContact = state.getByRawContactId(record.rawContactId);
+            if (rawContact == null) {
+                continue;
+            }
+            // Temporary ids of inserted rows are only meaningful within the journal, they may
+            // collide with the ids of rows inserted since.
+            final ValuesDelta entry = record.dataId < 0
+                    ? inserted.get(record.dataId) : rawContact.getEntry(record.dataId);
+            if (record.type == RECORD_DELETE) {
+                if (entry != null) {
+                    entry.markDeleted();
+                }
+            } else if (entry != null) {
+                putAll(entry, record.values);
+            } else if (record.dataId < 0) {
+                // A row inserted in the editor. It gets a new temporary id when recreated.
+                final ValuesDelta insert = ValuesDelta.fromAfter(new ContentValues(record.values));
+                rawContact.addEntry(insert);
+                inserted.put(record.dataId, insert);
+            }
+        }
+
+        for (int i = 0; i < mRecords.size(); i++) {
+            final Record record = mRecords.get(i);
+            final ValuesDelta insert = inserted.get(record.dataId);
+            if (insert != null) {
+                ContentValues values = null;
+                if (record.values != null) {
+                    values = new ContentValues(record.values);
+                    values.put(Data._ID, insert.getId());
+                }
+                mRecords.set(i, new Record(record.type, record.rawContactId, insert.getId(),
+                        values));
+            }
+        }
+    }
+
+    /**
+     * Compares two values the way {@link #putAll} would store them.
+     */
+    private static boolean valueEquals(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a instanceof byte[] || b instanceof byte[]) {
+            return a instanceof byte[] && b instanceof byte[]
+                    && Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a.equals(b) || a.toString().equals(b.toString());
+    }
+
+    private static void putAll(ValuesDelta entry, ContentValues values) {
+        for (Map.Entry<String, Object> value : values.valueSet()) {
+            final String key = value.getKey();
+            final Object object = value.getValue();
+            if (key.equals(Data._ID)) {
+                continue;
+            } else if (object == null) {
+                entry.putNull(key);
+            } else if (object instanceof String) {
+                entry.put(key, (String) object);
+            } else if (object instanceof Long) {
+                entry.put(key, (Long) object);
+            } else if (object instanceof Integer) {
+                entry.put(key, (Integer) object);
+            } else if (object instanceof byte[]) {
+                entry.put(key, (byte[]) object);
+            } else {
+                entry.put(key, object.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns true if the inserted row carries no data beyond its bookkeeping columns.
+     */
+    private static boolean isPlaceholder(ValuesDelta entry, DataKind kind) {
+        if (kind != null && RawContactModifier.isEmpty(entry, kind)) {
+            return true;
+        }
+        for (Map.Entry<String, Object> value : entry.getAfter().valueSet()) {
+            final String key = value.getKey();
+            if (key.equals(Data._ID) || key.equals(Data.MIMETYPE)
+                    || key.equals(Data.IS_PRIMARY) || key.equals(Data.IS_SUPER_PRIMARY)
+                    || (kind != null && key.equals(kind.typeColumn))) {
+                continue;
+            }
+            final Object object = value.getValue();
+            if (object != null && !"".equals(object)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops records that are superseded by a later record for the same row, provided there are
+     * more than {@code threshold} of them.
+     *
+     * @return true if the records were compacted.
+     */
+    private boolean compactRecords(int threshold) {
+        final LinkedHashMap<String, Record> latest = new LinkedHashMap<String, Record>();
+        for (Record record : mRecords) {
+            final String key = record.getRowKey();
+            // Re-inserting moves the row to the position of its latest record
+            latest.remove(key);
+            latest.put(key, record);
+        }
+        if (mRecords.size() - latest.size() <= threshold) {
+            return false;
+        }
+        mRecords.clear();
+        mRecords.addAll(latest.values());
+        // The file no longer matches the records, it has to be rewritten
+        mFileValid = false;
+        return true;
+    }
+
+    private void scheduleRewrite() {
+        final File file = mFile;
+        if (file == null) {
+            return;
+        }
+        final String lookupUri = mLookupUri.toString();
+        final ArrayList<Record> records = Lists.newArrayList(mRecords);
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!writeFile(file, lookupUri, records)) {
+                    mWriteFailed = true;
+                }
+            }
+        });
+        mFlushedCount = mRecords.size();
+        mFileValid = true;
+    }
+
+    private void scheduleAppend(final List<Record> records) {
+        final File file = mFile;
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!appendToFile(file, records)) {
+                    mWriteFailed = true;
+                }
+            }
+        });
+        mFlushedCount = mRecords.size();
+    }
+
+    private static void deleteFile(final File file) {
+        sFileExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (file.exists() && !file.delete()) {
+                    Log.w(TAG, "Unable to delete " + file);
+                }
+            }
+        });
+    }
+
+    private static void deleteAbandonedDrafts(File dir) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > MAX_DRAFT_AGE_MS && !file.delete()) {
+                Log.w(TAG, "Unable to delete " + file);
+            }
+        }
+    }
+
+    private static ArrayList<Record> readFile(File file, Uri lookupUri) {
+        if (!file.exists()) {
+            return null;
+        }
+        final ArrayList<Record> records = Lists.newArrayList();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            if (!in.readUTF().equals(lookupUri.toString())) {
+                // Another contact whose lookup URI has the same hash
+                return null;
+            }
+            try {
+                while (true) {
+                    records.add(readRecord(in));
+                }
+            } catch (EOFException e) {
+                // End of the journal, or a record that was only partially written when the
+                // process died. Either way the complete records are all we can use.
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+            return null;
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+        return records;
+    }
+
+    private static boolean writeFile(File file, String lookupUri, List<Record> records) {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            file.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(lookupUri);
+            for (Record record : records) {
+                writeRecord(out, record);
+            }
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+            Closeables.closeQuietly(out);
+            tempFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean appendToFile(File file, List<Record> records) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file, true)));
+            for (Record record : records) {
+                writeRecord(out, record);
+            }
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to append to " + file, e);
+            Closeables.closeQuietly(out);
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeRecord(DataOutputStream out, Record record) throws IOException {
+        out.writeByte(record.type);
+        out.writeLong(record.rawContactId);
+        out.writeLong(record.dataId);
+        if (record.type != RECORD_ENTRY) {
+            return;
+        }
+        out.writeInt(record.values.size());
+        for (Map.Entry<String, Object> value : record.values.valueSet()) {
+            out.writeUTF(value.getKey());
+            final Object object = value.getValue();
+            if (object == null) {
+                out.writeByte(VALUE_NULL);
+            } else if (object instanceof String) {
+                out.writeByte(VALUE_STRING);
+                out.writeUTF((String) object);
+            } else if (object instanceof Long) {
+                out.writeByte(VALUE_LONG);
+                out.writeLong((Long) object);
+            } else if (object instanceof Integer) {
+                out.writeByte(VALUE_INTEGER);
+                out.writeInt((Integer) object);
+            } else if (object instanceof Boolean) {
+                out.writeByte(VALUE_BOOLEAN);
+                out.writeBoolean((Boolean) object);
+            } else if (object instanceof Double || object instanceof Float) {
+                out.writeByte(VALUE_DOUBLE);
+                out.writeDouble(((Number) object).doubleValue());
+            } else if (object instanceof byte[]) {
+                final byte[] blob = (byte[]) object;
+                out.writeByte(VALUE_BLOB);
+                out.writeInt(blob.length);
+                out.write(blob);
+            } else {
+                out.writeByte(VALUE_STRING);
+                out.writeUTF(object.toString());
+            }
+        }
+    }
+
+    private static Record readRecord(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        final long rawContactId = in.readLong();
+        final long dataId = in.readLong();
+        if (type == RECORD_DELETE) {
+            return new Record(type, rawContactId, dataId, null);
+        } else if (type != RECORD_ENTRY) {
+            throw new IOException("Unknown record type " + type);
+        }
+        final int count = in.readInt();
+        final ContentValues values = new ContentValues(count);
+        for (int i = 0; i < count; i++) {
+            final String key = in.readUTF();
+            final byte valueType = in.readByte();
+            switch (valueType) {
+                case VALUE_NULL:
+                    values.putNull(key);
+                    break;
+                case VALUE_STRING:
+                    values.put(key, in.readUTF());
+                    break;
+                case VALUE_LONG:
+                    values.put(key, in.readLong());
+                    break;
+                case VALUE_INTEGER:
+                    values.put(key, in.readInt());
+                    break;
+                case VALUE_BOOLEAN:
+                    values.put(key, in.readBoolean());
+                    break;
+                case VALUE_DOUBLE:
+                    values.put(key, in.readDouble());
+                    break;
+                case VALUE_BLOB:
+                    final byte[] blob = new byte[in.readInt()];
+                    in.readFully(blob);
+                    values.put(key, blob);
+                    break;
+                default:
+                    throw new IOException("Unknown value type " + valueType);
+            }
+        }
+        return new Record(type, rawContactId, dataId, values);
+    }
+}
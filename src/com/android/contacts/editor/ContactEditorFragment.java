@@ -136,6 +136,14 @@ public class ContactEditorFragment extends Fragment implements
     private static final String KEY_CUSTOM_RINGTONE = "customRingtone";
     private static final String KEY_ARE_PHONE_OPTIONS_CHANGEABLE = "arePhoneOptionsChangable";
     private static final String KEY_EXPANDED_EDITORS = "expandedEditors";
+    private static final String KEY_DRAFT_JOURNAL = "draftJournal";
+    private static final String KEY_DRAFT_JOURNAL_RECORD_COUNT = "draftJournalRecordCount";
+
+    /**
+     * Minimum number of data rows for which the editor state is restored from the draft
+     * journal instead of being parceled.
+     */
+    private static final int DRAFT_JOURNAL_MIN_ENTRY_COUNT = 40;
 
     public static final String SAVE_MODE_EXTRA_KEY = "saveMode";
 
@@ -281,6 +289,32 @@ public class ContactEditorFragment extends Fragment implements
     // Used to store which raw contact editors have been expanded. Keyed on raw contact ids.
     private HashMap<Long, Boolean> mExpandedEditors = new HashMap<Long, Boolean>();
 
+    // Journal of the changes made on top of mRawContacts
+    private ContactEditorDraftJournal mDraftJournal;
+
+    // Whether mState was not parceled and has to be rebuilt from the reloaded contact and the
+    // draft journal
+    private boolean mRestoreFromDraftJournal;
+
+    // Contact loaded while the draft journal was being read back, bound once it is
+    private Contact mPendingContactData;
+
+    private final ContactEditorDraftJournal.RestoreListener mDraftJournalRestoreListener =
+            new ContactEditorDraftJournal.RestoreListener() {
+        @Override
+        public void onDraftJournalRestored(boolean restored) {
+            if (!restored) {
+                Log.w(TAG, "Unable to restore the draft journal, discarding changes");
+                mRestoreFromDraftJournal = false;
+            }
+            if (mPendingContactData != null && isAdded()) {
+                final Contact data = mPendingContactData;
+                mPendingContactData = null;
+                setData(data);
+            }
+        }
+    };
+
     private AggregationSuggestionEngine mAggregationSuggestionEngine;
     private long mAggregationSuggestionsRawContactId;
     private View mAggregationSuggestionView;
@@ -499,6 +533,8 @@ public class ContactEditorFragment extends Fragment implements
 
         super.onCreate(savedState);
 
+        mDraftJournal = new ContactEditorDraftJournal(mContext);
+
         if (savedState == null) {
             // If savedState is non-null, onRestoreInstanceState() will restore the generator.
             mViewIdGenerator = new ViewIdGenerator();
@@ -524,6 +560,14 @@ public class ContactEditorFragment extends Fragment implements
             mExistingContactDataReady = savedState.getBoolean(KEY_EXISTING_CONTACT_READY);
             mRawContacts = ImmutableList.copyOf(savedState.<RawContact>getParcelableArrayList(
                     KEY_RAW_CONTACTS));
+            if (savedState.getBoolean(KEY_DRAFT_JOURNAL)) {
+                // mState was not saved, it is rebuilt once the contact is reloaded and the
+                // journal read back
+                mRestoreFromDraftJournal = true;
+                mDraftJournal.restore(mLookupUri,
+                        savedState.getInt(KEY_DRAFT_JOURNAL_RECORD_COUNT),
+                        mDraftJournalRestoreListener);
+            }
             mSendToVoicemailState = savedState.getBoolean(KEY_SEND_TO_VOICE_MAIL_STATE);
             mCustomRingtone =  savedState.getString(KEY_CUSTOM_RINGTONE);
             mArePhoneOptionsChangable =  savedState.getBoolean(KEY_ARE_PHONE_OPTIONS_CHANGEABLE);
@@ -602,6 +646,12 @@ public class ContactEditorFragment extends Fragment implements
         mDefaultDisplayName = displayName;
 
         mState.addAll(rawContacts.iterator());
+        if (mRestoreFromDraftJournal) {
+            mRestoreFromDraftJournal = false;
+            mDraftJournal.replay(mState);
+        } else {
+            mDraftJournal.reset(mLookupUri);
+        }
         setIntentExtras(mIntentExtras);
         mIntentExtras = null;
 
@@ -859,6 +909,9 @@ public class ContactEditorFragment extends Fragment implements
             }
 
             editor.setEnabled(mEnabled);
+            if (editor instanceof RawContactEditorView) {
+                ((RawContactEditorView) editor).setDraftJournal(mDraftJournal);
+            }
 
             if (mExpandedEditors.containsKey(rawContactId)) {
                 editor.setCollapsed(mExpandedEditors.get(rawContactId));
@@ -1171,6 +1224,7 @@ public class ContactEditorFragment extends Fragment implements
                 item.setChecked(mSendToVoicemailState);
                 final Intent intent = ContactSaveService.createSetSendToVoicemail(
                         mContext, mLookupUri, mSendToVoicemailState);
+                onOwnChangeRequested();
                 mContext.startService(intent);
                 return true;
         }
@@ -1258,6 +1312,7 @@ public class ContactEditorFragment extends Fragment implements
                 SAVE_MODE_EXTRA_KEY, saveMode, isEditingUserProfile(),
                 ((Activity)mContext).getClass(), ContactEditorActivity.ACTION_SAVE_COMPLETED,
                 mUpdatedPhotos);
+        onOwnChangeRequested();
         mContext.startService(intent);
 
         // Don't try to save the same photos twice.
@@ -1303,6 +1358,7 @@ public class ContactEditorFragment extends Fragment implements
         }
         Intent intent = ContactSaveService.createSetRingtone(
                 mContext, mLookupUri, mCustomRingtone);
+        onOwnChangeRequested();
         mContext.startService(intent);
     }
 
@@ -1345,6 +1401,7 @@ public class ContactEditorFragment extends Fragment implements
     private void doRevertAction() {
         // When this Fragment is closed we don't want it to auto-save
         mStatus = Status.CLOSING;
+        mDraftJournal.reset(null);
         if (mListener != null) mListener.onReverted();
     }
 
@@ -1358,6 +1415,13 @@ public class ContactEditorFragment extends Fragment implements
 
     public void onSaveCompleted(boolean hadChanges, int saveMode, boolean saveSucceeded,
             Uri contactLookupUri) {
+        if (mAggregationSuggestionEngine != null) {
+            mAggregationSuggestionEngine.onOwnChangeCompleted();
+        }
+        if (saveSucceeded) {
+            // Everything in the journal has been persisted
+            mDraftJournal.reset(contactLookupUri);
+        }
         if (hadChanges) {
             if (saveSucceeded) {
                 if (saveMode != SaveMode.JOIN) {
@@ -1453,9 +1517,20 @@ public class ContactEditorFragment extends Fragment implements
         Intent intent = ContactSaveService.createJoinContactsIntent(mContext, mContactIdForJoin,
                 contactId, mContactWritableForJoin,
                 ContactEditorActivity.class, ContactEditorActivity.ACTION_JOIN_COMPLETED);
+        onOwnChangeRequested();
         mContext.startService(intent);
     }
 
+    /**
+     * Tells the suggestion engine that the provider notifications to come are caused by this
+     * editor.
+     */
+    private void onOwnChangeRequested() {
+        if (mAggregationSuggestionEngine != null) {
+            mAggregationSuggestionEngine.onOwnChangeRequested();
+        }
+    }
+
     /**
      * Returns true if there is at least one writable raw contact in the current contact.
      */
@@ -1814,7 +1889,14 @@ public class ContactEditorFragment extends Fragment implements
         outState.putParcelable(KEY_URI, mLookupUri);
         outState.putString(KEY_ACTION, mAction);
 
-        if (hasValidState()) {
+        // For large contacts the journal of the field changes replaces the parceled state, as
+        // long as it holds every change. If the state was not rebuilt from the journal yet, the
+        // journal still holds it.
+        final boolean useDraftJournal = mRestoreFromDraftJournal
+                || (hasValidState() && canRestoreFromDraftJournal() && mDraftJournal.flush());
+        outState.putBoolean(KEY_DRAFT_JOURNAL, useDraftJournal);
+        outState.putInt(KEY_DRAFT_JOURNAL_RECORD_COUNT, mDraftJournal.getRecordCount());
+        if (hasValidState() && !useDraftJournal) {
             // Store entities with modifications
             outState.putParcelable(KEY_EDIT_STATE, mState);
         }
@@ -1835,7 +1917,7 @@ public class ContactEditorFragment extends Fragment implements
         outState.putBoolean(KEY_NEW_CONTACT_READY, mNewContactDataReady);
         outState.putBoolean(KEY_EXISTING_CONTACT_READY, mExistingContactDataReady);
         outState.putParcelableArrayList(KEY_RAW_CONTACTS,
-                mRawContacts == null ?
+                mRawContacts == null || useDraftJournal ?
                 Lists.<RawContact>newArrayList() : Lists.newArrayList(mRawContacts));
         outState.putBoolean(KEY_SEND_TO_VOICE_MAIL_STATE, mSendToVoicemailState);
         outState.putString(KEY_CUSTOM_RINGTONE, mCustomRingtone);
@@ -1845,6 +1927,27 @@ public class ContactEditorFragment extends Fragment implements
         super.onSaveInstanceState(outState);
     }
 
+    /**
+     * Returns true if the editor state is large and can be rebuilt by reloading the contact and
+     * replaying the draft journal on top of it. This only walks the entries, as it runs on
+     * every save of the instance state.
+     */
+    private boolean canRestoreFromDraftJournal() {
+        if (mStatus != Status.EDITING || !Intent.ACTION_EDIT.equals(mAction)
+                || mLookupUri == null || mHasNewContact || mIsUserProfile
+                || mRawContacts == null) {
+            return false;
+        }
+        int entryCount = 0;
+        for (RawContactDelta delta : mState) {
+            for (String mimeType : delta.getMimeTypes()) {
+                entryCount += delta.getMimeEntries(mimeType).size();
+            }
+        }
+        return entryCount >= DRAFT_JOURNAL_MIN_ENTRY_COUNT
+                && mDraftJournal.covers(mState, AccountTypeManager.getInstance(mContext));
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (mStatus == Status.SUB_ACTIVITY) {
@@ -2002,6 +2105,11 @@ public class ContactEditorFragment extends Fragment implements
 
             mStatus = Status.EDITING;
             mLookupUri = data.getLookupUri();
+            if (mDraftJournal.isRestoring()) {
+                // Bound by mDraftJournalRestoreListener
+                mPendingContactData = data;
+                return;
+            }
             final long setDataStartTime = SystemClock.elapsedRealtime();
             setData(data);
             final long setDataEndTime = SystemClock.elapsedRealtime();
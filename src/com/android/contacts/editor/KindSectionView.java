@@ -65,6 +65,7 @@ public class KindSectionView extends LinearLayout implements EditorListener {
     private boolean mReadOnly;
 
     private ViewIdGenerator mViewIdGenerator;
+    private ContactEditorDraftJournal mDraftJournal;
 
     private LayoutInflater mInflater;
 
@@ -126,6 +127,14 @@ public class KindSectionView extends LinearLayout implements EditorListener {
         }
     }
 
+    /**
+     * Sets the journal that changes made through the editors of this section are recorded in.
+     * Must be called before {@link #setState}.
+     */
+    public void setDraftJournal(ContactEditorDraftJournal journal) {
+        mDraftJournal = journal;
+    }
+
     public void setState(DataKind kind, RawContactDelta state, boolean readOnly, ViewIdGenerator vig) {
         mKind = kind;
         mState = state;
@@ -190,6 +199,9 @@ public class KindSectionView extends LinearLayout implements EditorListener {
 
         view.setEnabled(isEnabled());
 
+        if (view instanceof LabeledEditorView) {
+            ((LabeledEditorView) view).setDraftJournal(mDraftJournal);
+        }
         if (view instanceof Editor) {
             Editor editor = (Editor) view;
             editor.setDeletable(true);
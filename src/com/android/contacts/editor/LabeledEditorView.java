@@ -85,6 +85,7 @@ public abstract class LabeledEditorView extends LinearLayout implements Editor,
     private ViewIdGenerator mViewIdGenerator;
     private DialogManager mDialogManager = null;
     private EditorListener mListener;
+    private ContactEditorDraftJournal mDraftJournal;
     protected int mMinLineItemHeight;
 
     /**
@@ -182,6 +183,9 @@ public abstract class LabeledEditorView extends LinearLayout implements Editor,
     public void deleteEditor() {
         // Keep around in model, but mark as deleted
         mEntry.markDeleted();
+        if (mDraftJournal != null) {
+            mDraftJournal.recordDelete(mState, mEntry);
+        }
 
         // Remove the view
         EditorAnimator.getInstance().removeEditorView(this);
@@ -243,6 +247,19 @@ public abstract class LabeledEditorView extends LinearLayout implements Editor,
         return mListener;
     }
 
+    /**
+     * Sets the journal that changes made through this editor are recorded in.
+     */
+    public void setDraftJournal(ContactEditorDraftJournal journal) {
+        mDraftJournal = journal;
+    }
+
+    private void recordDraftChange() {
+        if (mDraftJournal != null) {
+            mDraftJournal.recordEntry(mState, mEntry);
+        }
+    }
+
     @Override
     public void setDeletable(boolean deletable) {
         mIsDeletable = deletable;
@@ -318,6 +335,9 @@ public abstract class LabeledEditorView extends LinearLayout implements Editor,
     }
 
     protected void notifyEditorListener() {
+        // Subclasses call this once all columns affected by a field change are updated
+        recordDraftChange();
+
         if (mListener != null) {
             mListener.onRequest(EditorListener.FIELD_CHANGED);
         }
@@ -426,6 +446,7 @@ public abstract class LabeledEditorView extends LinearLayout implements Editor,
 
                     mEntry.put(mKind.typeColumn, mType.rawValue);
                     mEntry.put(mType.customColumn, customText);
+                    recordDraftChange();
                     rebuildLabel();
                     requestFocusForFirstEditField();
                     onLabelRebuilt();
@@ -490,6 +511,7 @@ public abstract class LabeledEditorView extends LinearLayout implements Editor,
             // User picked type, and we're sure it's ok to actually write the entry.
             mType = selected;
             mEntry.put(mKind.typeColumn, mType.rawValue);
+            recordDraftChange();
             rebuildLabel();
             requestFocusForFirstEditField();
             onLabelRebuilt();
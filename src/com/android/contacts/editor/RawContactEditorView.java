@@ -83,6 +83,7 @@ public class RawContactEditorView extends BaseRawContactEditorView {
     private Cursor mGroupMetaData;
     private DataKind mGroupMembershipKind;
     private RawContactDelta mState;
+    private ContactEditorDraftJournal mDraftJournal;
 
     public RawContactEditorView(Context context) {
         super(context);
@@ -164,6 +165,17 @@ public class RawContactEditorView extends BaseRawContactEditorView {
         super.onRestoreInstanceState(state);
     }
 
+    /**
+     * Sets the journal that changes made in this editor are recorded in. Must be called before
+     * {@link #setState}.
+     */
+    public void setDraftJournal(ContactEditorDraftJournal journal) {
+        mDraftJournal = journal;
+        mName.setDraftJournal(journal);
+        mPhoneticName.setDraftJournal(journal);
+        mNickName.setDraftJournal(journal);
+    }
+
     /**
      * Set the internal state for this view, given a current
      * {@link RawContactDelta} state and the {@link AccountType} that
@@ -301,6 +313,7 @@ public class RawContactEditorView extends BaseRawContactEditorView {
                 final KindSectionView section = (KindSectionView)mInflater.inflate(
                         R.layout.item_kind_section, mFields, false);
                 section.setEnabled(isEnabled());
+                section.setDraftJournal(mDraftJournal);
                 section.setState(kind, state, false, vig);
                 mFields.addView(section);
             }
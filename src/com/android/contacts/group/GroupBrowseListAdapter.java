@@ -32,6 +32,10 @@ import com.android.contacts.R;
 import com.android.contacts.common.model.account.AccountType;
 import com.android.contacts.common.model.AccountTypeManager;
 import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * Adapter to populate the list of groups.
@@ -42,7 +46,14 @@ public class GroupBrowseListAdapter extends BaseAdapter {
     private final LayoutInflater mLayoutInflater;
     private final AccountTypeManager mAccountTypeManager;
 
-    private Cursor mCursor;
+    private static final GroupListItem[] EMPTY_ITEMS = new GroupListItem[0];
+    private static final Uri[] EMPTY_URIS = new Uri[0];
+
+    // The rows of the last cursor, read once when it is set, so that binding a row doesn't
+    // move the cursor
+    private GroupListItem[] mItems = EMPTY_ITEMS;
+    private Uri[] mGroupUris = EMPTY_URIS;
+    private final HashMap<Long, Integer> mPositionsByGroupId = Maps.newHashMap();
 
     private boolean mSelectionVisible;
     private Uri mSelectedGroupUri;
@@ -54,35 +65,86 @@ public class GroupBrowseListAdapter extends BaseAdapter {
     }
 
     public void setCursor(Cursor cursor) {
-        mCursor = cursor;
+        loadItems(cursor);
 
         // If there's no selected group already and the cursor is valid, then by default, select the
         // first group
-        if (mSelectedGroupUri == null && cursor != null && cursor.getCount() > 0) {
-            GroupListItem firstItem = getItem(0);
-            long groupId = (firstItem == null) ? 0 : firstItem.getGroupId();
-            mSelectedGroupUri = getGroupUriFromId(groupId);
+        if (mSelectedGroupUri == null && mItems.length > 0) {
+            mSelectedGroupUri = mGroupUris[0];
         }
 
         notifyDataSetChanged();
     }
 
+    /**
+     * Reads all the rows of the cursor in one pass, working out on the way which groups are
+     * the first of their account.
+     */
+    private void loadItems(Cursor cursor) {
+        mPositionsByGroupId.clear();
+        if (cursor == null || cursor.isClosed() || cursor.getCount() == 0) {
+            mItems = EMPTY_ITEMS;
+            mGroupUris = EMPTY_URIS;
+            return;
+        }
+
+        final GroupListItem[] items = new GroupListItem[cursor.getCount()];
+        final Uri[] groupUris = new Uri[items.length];
+        String previousAccountName = null;
+        String previousAccountType = null;
+        String previousDataSet = null;
+        int position = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext() && position < items.length) {
+            String accountName = cursor.getString(GroupListLoader.ACCOUNT_NAME);
+            String accountType = cursor.getString(GroupListLoader.ACCOUNT_TYPE);
+            String dataSet = cursor.getString(GroupListLoader.DATA_SET);
+            long groupId = cursor.getLong(GroupListLoader.GROUP_ID);
+            String title = cursor.getString(GroupListLoader.TITLE);
+            int memberCount = cursor.getInt(GroupListLoader.MEMBER_COUNT);
+
+            // Compare with the previous row to determine whether or not we need to display an
+            // account header in this item.
+            boolean isFirstGroupInAccount = position == 0
+                    || !Objects.equal(accountName, previousAccountName)
+                    || !Objects.equal(accountType, previousAccountType)
+                    || !Objects.equal(dataSet, previousDataSet);
+
+            items[position] = new GroupListItem(accountName, accountType, dataSet, groupId,
+                    title, isFirstGroupInAccount, memberCount);
+            groupUris[position] = getGroupUriFromId(groupId);
+            mPositionsByGroupId.put(groupId, position);
+
+            previousAccountName = accountName;
+            previousAccountType = accountType;
+            previousDataSet = dataSet;
+            position++;
+        }
+
+        if (position < items.length) {
+            mItems = Arrays.copyOf(items, position);
+            mGroupUris = Arrays.copyOf(groupUris, position);
+        } else {
+            mItems = items;
+            mGroupUris = groupUris;
+        }
+    }
+
     public int getSelectedGroupPosition() {
-        if (mSelectedGroupUri == null || mCursor == null || mCursor.getCount() == 0) {
+        if (mSelectedGroupUri == null) {
             return -1;
         }
-
-        int index = 0;
-        mCursor.moveToPosition(-1);
-        while (mCursor.moveToNext()) {
-            long groupId = mCursor.getLong(GroupListLoader.GROUP_ID);
-            Uri uri = getGroupUriFromId(groupId);
-            if (mSelectedGroupUri.equals(uri)) {
-                  return index;
-            }
-            index++;
+        final long groupId;
+        try {
+            groupId = ContentUris.parseId(mSelectedGroupUri);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        final Integer position = mPositionsByGroupId.get(groupId);
+        if (position == null || !mSelectedGroupUri.equals(mGroupUris[position])) {
+            return -1;
         }
-        return -1;
+        return position;
     }
 
     public void setSelectionVisible(boolean flag) {
@@ -103,7 +165,7 @@ public class GroupBrowseListAdapter extends BaseAdapter {
 
     @Override
     public int getCount() {
-        return (mCursor == null || mCursor.isClosed()) ? 0 : mCursor.getCount();
+        return mItems.length;
     }
 
     @Override
@@ -113,35 +175,10 @@ public class GroupBrowseListAdapter extends BaseAdapter {
 
     @Override
     public GroupListItem getItem(int position) {
-        if (mCursor == null || mCursor.isClosed() || !mCursor.moveToPosition(position)) {
+        if (position < 0 || position >= mItems.length) {
             return null;
         }
-        String accountName = mCursor.getString(GroupListLoader.ACCOUNT_NAME);
-        String accountType = mCursor.getString(GroupListLoader.ACCOUNT_TYPE);
-        String dataSet = mCursor.getString(GroupListLoader.DATA_SET);
-        long groupId = mCursor.getLong(GroupListLoader.GROUP_ID);
-        String title = mCursor.getString(GroupListLoader.TITLE);
-        int memberCount = mCursor.getInt(GroupListLoader.MEMBER_COUNT);
-
-        // Figure out if this is the first group for this account name / account type pair by
-        // checking the previous entry. This is to determine whether or not we need to display an
-        // account header in this item.
-        int previousIndex = position - 1;
-        boolean isFirstGroupInAccount = true;
-        if (previousIndex >= 0 && mCursor.moveToPosition(previousIndex)) {
-            String previousGroupAccountName = mCursor.getString(GroupListLoader.ACCOUNT_NAME);
-            String previousGroupAccountType = mCursor.getString(GroupListLoader.ACCOUNT_TYPE);
-            String previousGroupDataSet = mCursor.getString(GroupListLoader.DATA_SET);
-
-            if (accountName.equals(previousGroupAccountName) &&
-                    accountType.equals(previousGroupAccountType) &&
-                    Objects.equal(dataSet, previousGroupDataSet)) {
-                isFirstGroupInAccount = false;
-            }
-        }
-
-        return new GroupListItem(accountName, accountType, dataSet, groupId, title,
-                isFirstGroupInAccount, memberCount);
+        return mItems[position];
     }
 
     @Override
@@ -180,7 +217,7 @@ public class GroupBrowseListAdapter extends BaseAdapter {
         }
 
         // Bind the group data
-        Uri groupUri = getGroupUriFromId(entry.getGroupId());
+        Uri groupUri = mGroupUris[position];
         String memberCountString = mContext.getResources().getQuantityString(
                 R.plurals.group_list_num_contacts_in_group, entry.getMemberCount(),
                 entry.getMemberCount());
@@ -21,6 +21,7 @@ import android.app.Fragment;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.ActivityNotFoundException;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.CursorLoader;
@@ -30,7 +31,10 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Rect;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.provider.ContactsContract.Contacts;
 import android.provider.ContactsContract.Groups;
 import android.text.TextUtils;
 import android.util.Log;
@@ -54,9 +58,14 @@ import com.android.contacts.common.ContactPhotoManager;
 import com.android.contacts.interactions.GroupDeletionDialogFragment;
 import com.android.contacts.common.list.ContactTileAdapter;
 import com.android.contacts.common.list.ContactTileView;
+import com.android.contacts.list.GroupMemberPager;
 import com.android.contacts.list.GroupMemberTileAdapter;
 import com.android.contacts.common.model.AccountTypeManager;
 import com.android.contacts.common.model.account.AccountType;
+import com.android.contacts.util.ContactVCardExporter;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
 
 /**
  * Displays the details of a group and shows a list of actions possible for the group.
@@ -95,6 +104,8 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
     private static final int LOADER_METADATA = 0;
     private static final int LOADER_MEMBERS = 1;
 
+    private static final int REQUEST_CODE_EXPORT = 1;
+
     private Context mContext;
 
     private View mRootView;
@@ -119,6 +130,13 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
     private boolean mIsReadOnly;
     private boolean mIsMembershipEditable;
 
+    // The metadata and the members of the group are loaded at the same time. The members are
+    // bound once the metadata says that the group exists, since the size display depends on
+    // the account type.
+    private boolean mGroupMetaDataLoaded;
+    private boolean mGroupFound;
+    private Cursor mPendingMemberCursor;
+
     private boolean mShowGroupActionInActionBar;
     private boolean mOptionsMenuGroupDeletable;
     private boolean mOptionsMenuGroupEditable;
@@ -147,6 +165,13 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
         mContext = null;
     }
 
+    @Override
+    public void onDestroy() {
+        // Release the windows of members
+        mAdapter.setPager(null);
+        super.onDestroy();
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedState) {
         setHasOptionsMenu(true);
@@ -165,7 +190,23 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
 
     public void loadGroup(Uri groupUri) {
         mGroupUri= groupUri;
+        mGroupId = parseGroupId(groupUri);
+        mGroupMetaDataLoaded = false;
+        mGroupFound = false;
+        mPendingMemberCursor = null;
         startGroupMetadataLoader();
+        if (mGroupId != -1) {
+            // The group ID is known from the URI, so don't wait for the metadata
+            startGroupMembersLoader();
+        }
+    }
+
+    private static long parseGroupId(Uri groupUri) {
+        try {
+            return ContentUris.parseId(groupUri);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     public void setQuickContact(boolean enableQuickContact) {
@@ -249,17 +290,29 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
                 Log.e(TAG, "Failed to load group metadata");
                 return;
             }
+            mGroupMetaDataLoaded = true;
+            mGroupFound = false;
             data.moveToPosition(-1);
             if (data.moveToNext()) {
                 boolean deleted = data.getInt(GroupMetaDataLoader.DELETED) == 1;
                 if (!deleted) {
+                    final long groupId = data.getLong(GroupMetaDataLoader.GROUP_ID);
+                    final boolean membersStarted = groupId == mGroupId;
+                    mGroupFound = true;
                     bindGroupMetaData(data);
 
-                    // Retrieve the list of members
-                    startGroupMembersLoader();
+                    if (!membersStarted) {
+                        // The URI didn't give the group ID, so retrieve the list of members now
+                        mPendingMemberCursor = null;
+                        startGroupMembersLoader();
+                    } else if (mPendingMemberCursor != null) {
+                        bindMembers(mPendingMemberCursor);
+                        mPendingMemberCursor = null;
+                    }
                     return;
                 }
             }
+            mPendingMemberCursor = null;
             updateSize(-1);
             updateTitle(null);
         }
@@ -276,7 +329,9 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
 
         @Override
         public CursorLoader onCreateLoader(int id, Bundle args) {
-            return GroupMemberLoader.constructLoaderForGroupDetailQuery(mContext, mGroupId);
+            // Only the IDs of the members are loaded here; the pager queries the rows to
+            // display as the list scrolls
+            return GroupMemberLoader.constructLoaderForGroupMemberIdsQuery(mContext, mGroupId);
         }
 
         @Override
@@ -285,13 +340,33 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
                 Log.e(TAG, "Failed to load group members");
                 return;
             }
-            updateSize(data.getCount());
-            mAdapter.setContactCursor(data);
-            mMemberListView.setEmptyView(mEmptyView);
+            if (!mGroupMetaDataLoaded) {
+                // Wait for the metadata to tell whether the group exists
+                mPendingMemberCursor = data;
+            } else if (mGroupFound) {
+                bindMembers(data);
+            }
         }
 
         @Override
-        public void onLoaderReset(Loader<Cursor> loader) {}
+        public void onLoaderReset(Loader<Cursor> loader) {
+            mPendingMemberCursor = null;
+        }
+    };
+
+    private void bindMembers(Cursor cursor) {
+        updateSize(cursor.getCount());
+        final GroupMemberPager pager = new GroupMemberPager(mContext, cursor, mPagerListener);
+        mAdapter.setPager(pager);
+        pager.prefetch(0, GroupMemberPager.WINDOW_SIZE);
+        mMemberListView.setEmptyView(mEmptyView);
+    }
+
+    private final GroupMemberPager.Listener mPagerListener = new GroupMemberPager.Listener() {
+        @Override
+        public void onWindowLoaded() {
+            mAdapter.notifyDataSetChanged();
+        }
     };
 
     private void bindGroupMetaData(Cursor cursor) {
@@ -414,6 +489,9 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
     @Override
     public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
             int totalItemCount) {
+        // The positions of the list include its headers, the rows of the adapter don't
+        final int firstRow = firstVisibleItem - mMemberListView.getHeaderViewsCount();
+        mAdapter.prefetchRows(Math.max(firstRow, 0), visibleItemCount);
     }
 
     @Override
@@ -453,6 +531,9 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
 
         final MenuItem deleteMenu = menu.findItem(R.id.menu_delete_group);
         deleteMenu.setVisible(mOptionsMenuGroupDeletable);
+
+        final MenuItem exportMenu = menu.findItem(R.id.menu_export_group);
+        exportMenu.setVisible(mGroupFound && isVisible());
     }
 
     @Override
@@ -467,10 +548,81 @@ public class GroupDetailFragment extends Fragment implements OnScrollListener {
                         mCloseActivityAfterDelete);
                 return true;
             }
+            case R.id.menu_export_group: {
+                final Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType(Contacts.CONTENT_VCARD_TYPE);
+                intent.putExtra(Intent.EXTRA_TITLE, mGroupName + ".vcf");
+                try {
+                    startActivityForResult(intent, REQUEST_CODE_EXPORT);
+                } catch (ActivityNotFoundException e) {
+                    Log.e(TAG, "No activity found to export the group");
+                }
+                return true;
+            }
         }
         return false;
     }
 
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_CODE_EXPORT && resultCode == Activity.RESULT_OK
+                && data != null && data.getData() != null) {
+            exportGroup(mContext, mGroupId, data.getData());
+        }
+    }
+
+    /**
+     * Streams the vCards of the members of the group to the given document. The export goes on
+     * in the background if the fragment goes away, and its outcome is shown in a toast.
+     */
+    private static void exportGroup(Context context, final long groupId, final Uri output) {
+        final Context appContext = context.getApplicationContext();
+        final ContentResolver resolver = appContext.getContentResolver();
+        final ContactVCardExporter.Listener listener = new ContactVCardExporter.Listener() {
+            @Override
+            public void onExportProgress(int exportedCount, int totalCount) {
+            }
+
+            @Override
+            public void onExportFinished(int exportedCount, int totalCount) {
+                Toast.makeText(appContext, exportedCount == totalCount
+                        ? R.string.groupExportedToast : R.string.groupExportedErrorToast,
+                        Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onExportCancelled(int totalCount) {
+            }
+        };
+        new AsyncTask<Void, Void, ContactVCardExporter>() {
+            @Override
+            protected ContactVCardExporter doInBackground(Void... params) {
+                final ArrayList<String> lookupKeys =
+                        ContactVCardExporter.queryGroupLookupKeys(resolver, groupId);
+                try {
+                    final ParcelFileDescriptor fd = resolver.openFileDescriptor(output, "w");
+                    if (fd == null) {
+                        return null;
+                    }
+                    return new ContactVCardExporter(resolver, lookupKeys, fd, listener);
+                } catch (FileNotFoundException e) {
+                    Log.e(TAG, "Unable to open " + output, e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(ContactVCardExporter exporter) {
+                if (exporter == null) {
+                    listener.onExportFinished(-1, 0);
+                    return;
+                }
+                exporter.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
     public void closeActivityAfterDelete(boolean closeActivity) {
         mCloseActivityAfterDelete = closeActivity;
     }
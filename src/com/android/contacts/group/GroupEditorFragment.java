@@ -198,9 +198,13 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
     private ContentResolver mContentResolver;
     private SuggestedMemberListAdapter mAutoCompleteAdapter;
 
-    private ArrayList<Member> mListMembersToAdd = new ArrayList<Member>();
-    private ArrayList<Member> mListMembersToRemove = new ArrayList<Member>();
-    private ArrayList<Member> mListToDisplay = new ArrayList<Member>();
+    private final GroupMemberships mMemberships = new GroupMemberships();
+
+    // The existing members are loaded at the same time as the metadata, and kept here until
+    // the metadata says that the group exists
+    private boolean mGroupMetaDataLoaded;
+    private boolean mGroupFound;
+    private List<Member> mPendingExistingMembers;
 
     public GroupEditorFragment() {
     }
@@ -261,8 +265,16 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
 
     private void startGroupMetaDataLoader() {
         mStatus = Status.LOADING;
+        mGroupMetaDataLoaded = false;
+        mGroupFound = false;
+        mPendingExistingMembers = null;
         getLoaderManager().initLoader(LOADER_GROUP_METADATA, null,
                 mGroupMetaDataLoaderListener);
+
+        // The group ID is known from the URI, so load the existing members without waiting
+        // for the metadata
+        getLoaderManager().initLoader(LOADER_EXISTING_MEMBERS, null,
+                mGroupMemberListLoaderListener);
     }
 
     @Override
@@ -280,9 +292,11 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         outState.putBoolean(KEY_GROUP_NAME_IS_READ_ONLY, mGroupNameIsReadOnly);
         outState.putString(KEY_ORIGINAL_GROUP_NAME, mOriginalGroupName);
 
-        outState.putParcelableArrayList(KEY_MEMBERS_TO_ADD, mListMembersToAdd);
-        outState.putParcelableArrayList(KEY_MEMBERS_TO_REMOVE, mListMembersToRemove);
-        outState.putParcelableArrayList(KEY_MEMBERS_TO_DISPLAY, mListToDisplay);
+        outState.putParcelableArrayList(KEY_MEMBERS_TO_ADD, mMemberships.getMembersToAdd());
+        outState.putParcelableArrayList(KEY_MEMBERS_TO_REMOVE,
+                mMemberships.getMembersToRemove());
+        outState.putParcelableArrayList(KEY_MEMBERS_TO_DISPLAY,
+                mMemberships.getMembersToDisplay());
     }
 
     private void onRestoreInstanceState(Bundle state) {
@@ -298,9 +312,12 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         mGroupNameIsReadOnly = state.getBoolean(KEY_GROUP_NAME_IS_READ_ONLY);
         mOriginalGroupName = state.getString(KEY_ORIGINAL_GROUP_NAME);
 
-        mListMembersToAdd = state.getParcelableArrayList(KEY_MEMBERS_TO_ADD);
-        mListMembersToRemove = state.getParcelableArrayList(KEY_MEMBERS_TO_REMOVE);
-        mListToDisplay = state.getParcelableArrayList(KEY_MEMBERS_TO_DISPLAY);
+        final ArrayList<Member> membersToAdd = state.getParcelableArrayList(KEY_MEMBERS_TO_ADD);
+        final ArrayList<Member> membersToRemove =
+                state.getParcelableArrayList(KEY_MEMBERS_TO_REMOVE);
+        final ArrayList<Member> membersToDisplay =
+                state.getParcelableArrayList(KEY_MEMBERS_TO_DISPLAY);
+        mMemberships.restore(membersToAdd, membersToRemove, membersToDisplay);
     }
 
     public void setContentResolver(ContentResolver resolver) {
@@ -391,7 +408,7 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
             }
             editorView = mLayoutInflater.inflate(newGroupEditorId, mRootView, false);
             editorView.setTag(CURRENT_EDITOR_TAG);
-            mAutoCompleteAdapter = null;
+            closeAutoCompleteAdapter();
             mLastGroupEditorId = newGroupEditorId;
             isNewEditor = true;
         } else {
@@ -426,12 +443,14 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         // account name and type. For groups that cannot have membership edited, there will be no
         // autocomplete text view.
         if (mAutoCompleteTextView != null) {
+            closeAutoCompleteAdapter();
             mAutoCompleteAdapter = new SuggestedMemberListAdapter(mContext,
                     android.R.layout.simple_dropdown_item_1line);
             mAutoCompleteAdapter.setContentResolver(mContentResolver);
             mAutoCompleteAdapter.setAccountType(mAccountType);
             mAutoCompleteAdapter.setAccountName(mAccountName);
             mAutoCompleteAdapter.setDataSet(mDataSet);
+            mAutoCompleteAdapter.preloadIndex();
             mAutoCompleteTextView.setAdapter(mAutoCompleteAdapter);
             mAutoCompleteTextView.setOnItemClickListener(new OnItemClickListener() {
                 @Override
@@ -450,9 +469,9 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
                     mAutoCompleteTextView.setText("");
                 }
             });
-            // Update the exempt list.  (mListToDisplay might have been restored from the saved
-            // state.)
-            mAutoCompleteAdapter.updateExistingMembersList(mListToDisplay);
+            // Members that are displayed don't get suggested.  (They might have been restored
+            // from the saved state.)
+            mAutoCompleteAdapter.setExistingMemberContactIds(mMemberships.getContactIds());
         }
 
         // If the group name is ready only, don't let the user focus on the field.
@@ -463,6 +482,19 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         mStatus = Status.EDITING;
     }
 
+    private void closeAutoCompleteAdapter() {
+        if (mAutoCompleteAdapter != null) {
+            mAutoCompleteAdapter.close();
+            mAutoCompleteAdapter = null;
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        closeAutoCompleteAdapter();
+        super.onDestroy();
+    }
+
     public void load(String action, Uri groupUri, Bundle intentExtras) {
         mAction = action;
         mGroupUri = groupUri;
@@ -470,13 +502,16 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         mIntentExtras = intentExtras;
     }
 
-    private void bindGroupMetaData(Cursor cursor) {
+    /**
+     * @return whether the group was found
+     */
+    private boolean bindGroupMetaData(Cursor cursor) {
         if (!cursor.moveToFirst()) {
             Log.i(TAG, "Group not found with URI: " + mGroupUri + " Closing activity now.");
             if (mListener != null) {
                 mListener.onGroupNotFound();
             }
-            return;
+            return false;
         }
         mOriginalGroupName = cursor.getString(GroupMetaDataLoader.TITLE);
         mAccountName = cursor.getString(GroupMetaDataLoader.ACCOUNT_NAME);
@@ -487,6 +522,7 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
 
         // Setup the group metadata display
         mGroupNameView.setText(mOriginalGroupName);
+        return true;
     }
 
     public void loadMemberToAddToGroup(long rawContactId, String contactId) {
@@ -598,7 +634,7 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         Intent saveIntent = null;
         if (Intent.ACTION_INSERT.equals(mAction)) {
             // Create array of raw contact IDs for contacts to add to the group
-            long[] membersToAddArray = convertToArray(mListMembersToAdd);
+            long[] membersToAddArray = mMemberships.getRawContactIdsToAdd();
 
             // Create the save intent to create the group and add members at the same time
             saveIntent = ContactSaveService.createNewGroupIntent(activity,
@@ -608,10 +644,10 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
                     GroupEditorActivity.ACTION_SAVE_COMPLETED);
         } else if (Intent.ACTION_EDIT.equals(mAction)) {
             // Create array of raw contact IDs for contacts to add to the group
-            long[] membersToAddArray = convertToArray(mListMembersToAdd);
+            long[] membersToAddArray = mMemberships.getRawContactIdsToAdd();
 
-            // Create array of raw contact IDs for contacts to add to the group
-            long[] membersToRemoveArray = convertToArray(mListMembersToRemove);
+            // Create array of raw contact IDs for contacts to remove from the group
+            long[] membersToRemoveArray = mMemberships.getRawContactIdsToRemove();
 
             // Create the update intent (which includes the updated group name if necessary)
             saveIntent = ContactSaveService.createGroupUpdateIntent(activity, mGroupId,
@@ -671,7 +707,7 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
     }
 
     private boolean hasMembershipChange() {
-        return mListMembersToAdd.size() > 0 || mListMembersToRemove.size() > 0;
+        return mMemberships.hasChanges();
     }
 
     /**
@@ -687,54 +723,22 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
         return groupNameFromTextView;
     }
 
-    private static long[] convertToArray(List<Member> listMembers) {
-        int size = listMembers.size();
-        long[] membersArray = new long[size];
-        for (int i = 0; i < size; i++) {
-            membersArray[i] = listMembers.get(i).getRawContactId();
-        }
-        return membersArray;
-    }
-
     private void addExistingMembers(List<Member> members) {
-
-        // Re-create the list to display
-        mListToDisplay.clear();
-        mListToDisplay.addAll(members);
-        mListToDisplay.addAll(mListMembersToAdd);
-        mListToDisplay.removeAll(mListMembersToRemove);
+        // Re-create the list to display. The autocomplete adapter (if there is one) shares the
+        // contact IDs of the displayed members, so these contacts don't get suggested.
+        mMemberships.setExistingMembers(members);
         mMemberListAdapter.notifyDataSetChanged();
-
-
-        // Update the autocomplete adapter (if there is one) so these contacts don't get suggested
-        if (mAutoCompleteAdapter != null) {
-            mAutoCompleteAdapter.updateExistingMembersList(members);
-        }
     }
 
     private void addMember(Member member) {
         // Update the display list
-        mListMembersToAdd.add(member);
-        mListToDisplay.add(member);
+        mMemberships.add(member);
         mMemberListAdapter.notifyDataSetChanged();
-
-        // Update the autocomplete adapter so the contact doesn't get suggested again
-        mAutoCompleteAdapter.addNewMember(member.getContactId());
     }
 
     private void removeMember(Member member) {
-        // If the contact was just added during this session, remove it from the list of
-        // members to add
-        if (mListMembersToAdd.contains(member)) {
-            mListMembersToAdd.remove(member);
-        } else {
-            // Otherwise this contact was already part of the existing list of contacts,
-            // so we need to do a content provider deletion operation
-            mListMembersToRemove.add(member);
-        }
-        // In either case, update the UI so the contact is no longer in the list of
-        // members
-        mListToDisplay.remove(member);
+        // Update the UI so the contact is no longer in the list of members
+        mMemberships.remove(member);
         mMemberListAdapter.notifyDataSetChanged();
 
         // Update the autocomplete adapter so the contact can get suggested again
@@ -754,11 +758,14 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
 
         @Override
         public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-            bindGroupMetaData(data);
+            mGroupMetaDataLoaded = true;
+            mGroupFound = bindGroupMetaData(data);
 
-            // Load existing members
-            getLoaderManager().initLoader(LOADER_EXISTING_MEMBERS, null,
-                    mGroupMemberListLoaderListener);
+            // Show the existing members if they arrived first
+            if (mGroupFound && mPendingExistingMembers != null) {
+                addExistingMembers(mPendingExistingMembers);
+            }
+            mPendingExistingMembers = null;
         }
 
         @Override
@@ -790,8 +797,12 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
                         displayName, photoUri));
             }
 
-            // Update the display list
-            addExistingMembers(listExistingMembers);
+            // Update the display list, once the metadata says that the group exists
+            if (!mGroupMetaDataLoaded) {
+                mPendingExistingMembers = listExistingMembers;
+            } else if (mGroupFound) {
+                addExistingMembers(listExistingMembers);
+            }
 
             // No more updates
             // TODO: move to a runnable
@@ -983,12 +994,12 @@ public class GroupEditorFragment extends Fragment implements SelectAccountDialog
 
         @Override
         public int getCount() {
-            return mListToDisplay.size();
+            return mMemberships.getDisplayCount();
         }
 
         @Override
         public Member getItem(int position) {
-            return mListToDisplay.get(position);
+            return mMemberships.getDisplayed(position);
         }
 
         @Override
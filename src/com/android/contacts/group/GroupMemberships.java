@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.group;
+
+import com.android.contacts.group.GroupEditorFragment.Member;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The members of a group being edited, and the changes made to them. Members are keyed by
+ * raw contact ID, so that every update is done in constant time.
+ */
+final class GroupMemberships {
+
+    private final LinkedHashMap<Long, Member> mMembersToAdd = Maps.newLinkedHashMap();
+    private final LinkedHashMap<Long, Member> mMembersToRemove = Maps.newLinkedHashMap();
+    private final LinkedHashMap<Long, Member> mMembersToDisplay = Maps.newLinkedHashMap();
+
+    // Number of displayed members of each contact. It is read from the suggestion filter
+    // thread, hence the concurrent map.
+    private final ConcurrentHashMap<Long, Integer> mContactMemberCounts =
+            new ConcurrentHashMap<Long, Integer>();
+
+    // Members to display in order, rebuilt lazily after a change
+    private ArrayList<Member> mDisplayList;
+
+    /**
+     * Replaces the members loaded from the provider. Pending changes are applied on top of them.
+     */
+    public void setExistingMembers(List<Member> members) {
+        mMembersToDisplay.clear();
+        mContactMemberCounts.clear();
+        for (Member member : members) {
+            if (!mMembersToRemove.containsKey(member.getRawContactId())) {
+                putDisplayed(member);
+            }
+        }
+        for (Member member : mMembersToAdd.values()) {
+            putDisplayed(member);
+        }
+        mDisplayList = null;
+    }
+
+    /**
+     * Restores the state saved from {@link #getMembersToAdd}, {@link #getMembersToRemove} and
+     * {@link #getMembersToDisplay}.
+     */
+    public void restore(List<Member> membersToAdd, List<Member> membersToRemove,
+            List<Member> membersToDisplay) {
+        mMembersToAdd.clear();
+        mMembersToRemove.clear();
+        putAll(mMembersToAdd, membersToAdd);
+        putAll(mMembersToRemove, membersToRemove);
+        mMembersToDisplay.clear();
+        mContactMemberCounts.clear();
+        if (membersToDisplay != null) {
+            for (Member member : membersToDisplay) {
+                putDisplayed(member);
+            }
+        }
+        mDisplayList = null;
+    }
+
+    public void add(Member member) {
+        final long rawContactId = member.getRawContactId();
+        // Adding back a member removed in this session just cancels the removal
+        if (mMembersToRemove.remove(rawContactId) == null) {
+            mMembersToAdd.put(rawContactId, member);
+        }
+        if (!mMembersToDisplay.containsKey(rawContactId)) {
+            putDisplayed(member);
+            mDisplayList = null;
+        }
+    }
+
+    public void remove(Member member) {
+        final long rawContactId = member.getRawContactId();
+        // If the contact was just added during this session, remove it from the members to
+        // add. Otherwise this contact was already part of the existing members, so it needs
+        // to be deleted from the provider.
+        if (mMembersToAdd.remove(rawContactId) == null) {
+            mMembersToRemove.put(rawContactId, member);
+        }
+        final Member displayed = mMembersToDisplay.remove(rawContactId);
+        if (displayed != null) {
+            final long contactId = displayed.getContactId();
+            final Integer count = mContactMemberCounts.get(contactId);
+            if (count == null || count <= 1) {
+                mContactMemberCounts.remove(contactId);
+            } else {
+                mContactMemberCounts.put(contactId, count - 1);
+            }
+            mDisplayList = null;
+        }
+    }
+
+    public boolean hasChanges() {
+        return !mMembersToAdd.isEmpty() || !mMembersToRemove.isEmpty();
+    }
+
+    public int getDisplayCount() {
+        return mMembersToDisplay.size();
+    }
+
+    public Member getDisplayed(int position) {
+        return getMembersToDisplay().get(position);
+    }
+
+    /**
+     * Returns the IDs of the contacts that have a displayed member. The set can be read from
+     * any thread, and reflects later changes.
+     */
+    public Set<Long> getContactIds() {
+        return Collections.unmodifiableSet(mContactMemberCounts.keySet());
+    }
+
+    public ArrayList<Member> getMembersToAdd() {
+        return Lists.newArrayList(mMembersToAdd.values());
+    }
+
+    public ArrayList<Member> getMembersToRemove() {
+        return Lists.newArrayList(mMembersToRemove.values());
+    }
+
+    public ArrayList<Member> getMembersToDisplay() {
+        if (mDisplayList == null) {
+            mDisplayList = Lists.newArrayList(mMembersToDisplay.values());
+        }
+        return mDisplayList;
+    }
+
+    public long[] getRawContactIdsToAdd() {
+        return toArray(mMembersToAdd.keySet());
+    }
+
+    public long[] getRawContactIdsToRemove() {
+        return toArray(mMembersToRemove.keySet());
+    }
+
+    private void putDisplayed(Member member) {
+        if (mMembersToDisplay.put(member.getRawContactId(), member) == null) {
+            final Integer count = mContactMemberCounts.get(member.getContactId());
+            mContactMemberCounts.put(member.getContactId(), count == null ? 1 : count + 1);
+        }
+    }
+
+    private static void putAll(LinkedHashMap<Long, Member> map, List<Member> members) {
+        if (members == null) {
+            return;
+        }
+        for (Member member : members) {
+            map.put(member.getRawContactId(), member);
+        }
+    }
+
+    private static long[] toArray(Collection<Long> ids) {
+        final long[] array = new long[ids.size()];
+        int i = 0;
+        for (long id : ids) {
+            array[i++] = id;
+        }
+        return array;
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts.group;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract.RawContacts;
+import android.text.TextUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * In-memory index of the names of the raw contacts of one account, answering the prefix
+ * queries of {@link SuggestedMemberListAdapter} without going to the provider. The index is
+ * loaded on first use. After the raw contacts change it is loaded again in the background,
+ * and queries are answered from the previous index until the new one is ready.
+ */
+final class SuggestedMemberIndex {
+
+    private static final String[] PROJECTION = new String[] {
+        RawContacts._ID,                        // 0
+        RawContacts.CONTACT_ID,                 // 1
+        RawContacts.DISPLAY_NAME_PRIMARY,       // 2
+        RawContacts.DISPLAY_NAME_ALTERNATIVE,   // 3
+    };
+
+    private static final int RAW_CONTACT_ID_COLUMN_INDEX = 0;
+    private static final int CONTACT_ID_COLUMN_INDEX = 1;
+    private static final int DISPLAY_NAME_PRIMARY_COLUMN_INDEX = 2;
+    private static final int DISPLAY_NAME_ALTERNATIVE_COLUMN_INDEX = 3;
+
+    private static final String SORT_ORDER =
+            RawContacts.DISPLAY_NAME_PRIMARY + " COLLATE LOCALIZED ASC";
+
+    /** Delay between a change of the raw contacts and the reload, so that a sync reloads once. */
+    private static final long RELOAD_DELAY_MS = 1000;
+
+    /**
+     * A raw contact whose primary or alternative name starts with the query.
+     */
+    static final class Entry {
+        final long rawContactId;
+        final long contactId;
+        final String displayName;
+
+        // Position of the raw contact in the localized order of the primary names
+        private final int rank;
+
+        private Entry(long rawContactId, long contactId, String displayName, int rank) {
+            this.rawContactId = rawContactId;
+            this.contactId = contactId;
+            this.displayName = displayName;
+            this.rank = rank;
+        }
+    }
+
+    private static final Comparator<Entry> RANK_COMPARATOR = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.rank - rhs.rank;
+        }
+    };
+
+    /**
+     * Immutable content of the index: lower case names, sorted for the prefix search, and the
+     * raw contact each of them belongs to. Each raw contact appears once for its primary name
+     * and once for its alternative name, if different.
+     */
+    private static final class Snapshot {
+        final String[] keys;
+        final Entry[] entries;
+
+        Snapshot(String[] keys, Entry[] entries) {
+            this.keys = keys;
+            this.entries = entries;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final String mAccountType;
+    private final String mAccountName;
+    private final String mDataSet;
+
+    // The index is created on a worker thread, so changes are debounced on the main thread
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mHandler.removeCallbacks(mReloadRunnable);
+            mHandler.postDelayed(mReloadRunnable, RELOAD_DELAY_MS);
+        }
+    };
+
+    private final Runnable mReloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    load();
+                }
+            });
+        }
+    };
+
+    // Serializes the loads, so that the last one to finish has the latest names
+    private final Object mLoadLock = new Object();
+
+    private volatile Snapshot mSnapshot;
+    private volatile boolean mClosed;
+
+    public SuggestedMemberIndex(ContentResolver resolver, String accountType,
+            String accountName, String dataSet) {
+        mContentResolver = resolver;
+        mAccountType = accountType;
+        mAccountName = accountName;
+        mDataSet = dataSet;
+        mContentResolver.registerContentObserver(RawContacts.CONTENT_URI, true, mObserver);
+    }
+
+    public boolean isFor(String accountType, String accountName, String dataSet) {
+        return TextUtils.equals(mAccountType, accountType)
+                && TextUtils.equals(mAccountName, accountName)
+                && TextUtils.equals(mDataSet, dataSet);
+    }
+
+    /**
+     * Stops following the changes of the raw contacts. The index can't be used afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        mContentResolver.unregisterContentObserver(mObserver);
+        mHandler.removeCallbacks(mReloadRunnable);
+    }
+
+    /**
+     * Loads the index if it isn't loaded yet. Must not be called on the UI thread.
+     */
+    public void preload() {
+        getSnapshot();
+    }
+
+    /**
+     * Returns up to {@code limit} raw contacts whose names start with the prefix, in the
+     * localized order of their primary names, skipping the given contacts. Must not be called
+     * on the UI thread: the first call loads the index.
+     */
+    public List<Entry> query(String prefix, int limit, Set<Long> excludedContactIds) {
+        final Snapshot snapshot = getSnapshot();
+        if (snapshot == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        final String[] keys = snapshot.keys;
+        final String key = normalize(prefix);
+        int index = Arrays.binarySearch(keys, key);
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            // Step back to the first of equal keys
+            while (index > 0 && keys[index - 1].equals(key)) {
+                index--;
+            }
+        }
+
+        // Keeps the first entries by rank, the last of them at the head, so that a short
+        // prefix matching most of the account costs no more than the few results it returns.
+        // Both entries of a raw contact have the same rank, so the second one is either
+        // skipped as a duplicate or, like the first one, ranked out.
+        final PriorityQueue<Entry> firstEntries = new PriorityQueue<Entry>(limit,
+                Collections.reverseOrder(RANK_COMPARATOR));
+        final HashSet<Long> rawContactIds = Sets.newHashSet();
+        for (; index < keys.length && keys[index].startsWith(key); index++) {
+            final Entry entry = snapshot.entries[index];
+            if (excludedContactIds.contains(entry.contactId)
+                    || rawContactIds.contains(entry.rawContactId)) {
+                continue;
+            }
+            if (firstEntries.size() >= limit) {
+                if (entry.rank >= firstEntries.peek().rank) {
+                    continue;
+                }
+                rawContactIds.remove(firstEntries.poll().rawContactId);
+            }
+            firstEntries.add(entry);
+            rawContactIds.add(entry.rawContactId);
+        }
+
+        final List<Entry> result = Lists.newArrayList(firstEntries);
+        Collections.sort(result, RANK_COMPARATOR);
+        return result;
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            synchronized (mLoadLock) {
+                snapshot = mSnapshot;
+                if (snapshot == null) {
+                    load();
+                    snapshot = mSnapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    private void load() {
+        synchronized (mLoadLock) {
+            if (mClosed) {
+                return;
+            }
+            final Snapshot snapshot = queryNames();
+            if (snapshot != null) {
+                mSnapshot = snapshot;
+            }
+        }
+    }
+
+    private Snapshot queryNames() {
+        String selection = RawContacts.ACCOUNT_NAME + "=? AND " +
+                RawContacts.ACCOUNT_TYPE + "=?";
+        String[] args;
+        if (mDataSet == null) {
+            selection += " AND " + RawContacts.DATA_SET + " IS NULL";
+            args = new String[] {mAccountName, mAccountType};
+        } else {
+            selection += " AND " + RawContacts.DATA_SET + "=?";
+            args = new String[] {mAccountName, mAccountType, mDataSet};
+        }
+
+        final ArrayList<String> keys = Lists.newArrayList();
+        final ArrayList<Entry> entries = Lists.newArrayList();
+        final Cursor cursor = mContentResolver.query(RawContacts.CONTENT_URI, PROJECTION,
+                selection, args, SORT_ORDER);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            int rank = 0;
+            while (cursor.moveToNext()) {
+                final String displayName = cursor.getString(DISPLAY_NAME_PRIMARY_COLUMN_INDEX);
+                if (displayName == null) {
+                    continue;
+                }
+                final Entry entry = new Entry(cursor.getLong(RAW_CONTACT_ID_COLUMN_INDEX),
+                        cursor.getLong(CONTACT_ID_COLUMN_INDEX), displayName, rank++);
+                final String primaryKey = normalize(displayName);
+                keys.add(primaryKey);
+                entries.add(entry);
+
+                final String alternativeName =
+                        cursor.getString(DISPLAY_NAME_ALTERNATIVE_COLUMN_INDEX);
+                if (alternativeName != null) {
+                    final String alternativeKey = normalize(alternativeName);
+                    if (!alternativeKey.equals(primaryKey)) {
+                        keys.add(alternativeKey);
+                        entries.add(entry);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // The keys are only sorted for the binary search; the results are ordered by rank
+        final Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return keys.get(lhs).compareTo(keys.get(rhs));
+            }
+        });
+        final String[] sortedKeys = new String[order.length];
+        final Entry[] sortedEntries = new Entry[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedKeys[i] = keys.get(order[i]);
+            sortedEntries[i] = entries.get(order[i]);
+        }
+        return new Snapshot(sortedKeys, sortedEntries);
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.getDefault());
+    }
+}
@@ -18,8 +18,7 @@ package com.android.contacts.group;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.CommonDataKinds.Photo;
@@ -40,10 +39,15 @@ import com.android.contacts.R;
 import com.android.contacts.common.ContactPhotoManager;
 import com.android.contacts.group.SuggestedMemberListAdapter.SuggestedMember;
 
+import com.google.common.collect.Sets;
+
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This adapter provides suggested contacts that can be added to a group for an
@@ -51,45 +55,43 @@ import java.util.List;
  */
 public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
 
-    private static final String[] PROJECTION_FILTERED_MEMBERS = new String[] {
-        RawContacts._ID,                        // 0
-        RawContacts.CONTACT_ID,                 // 1
-        RawContacts.DISPLAY_NAME_PRIMARY        // 2
-    };
-
     private static final int RAW_CONTACT_ID_COLUMN_INDEX = 0;
-    private static final int CONTACT_ID_COLUMN_INDEX = 1;
-    private static final int DISPLAY_NAME_PRIMARY_COLUMN_INDEX = 2;
 
     private static final String[] PROJECTION_MEMBER_DATA = new String[] {
         RawContacts._ID,                        // 0
         RawContacts.CONTACT_ID,                 // 1
         Data.MIMETYPE,                          // 2
         Data.DATA1,                             // 3
-        Photo.PHOTO,                            // 4
+        RawContactsEntity.DATA_ID,              // 4
     };
 
     private static final int MIMETYPE_COLUMN_INDEX = 2;
     private static final int DATA_COLUMN_INDEX = 3;
-    private static final int PHOTO_COLUMN_INDEX = 4;
+    private static final int DATA_ID_COLUMN_INDEX = 4;
 
     private Filter mFilter;
     private ContentResolver mContentResolver;
     private LayoutInflater mInflater;
+    private final ContactPhotoManager mPhotoManager;
 
     private String mAccountType;
     private String mAccountName;
     private String mDataSet;
 
-    // TODO: Make this a Map for better performance when we check if a new contact is in the list
-    // or not
-    private final List<Long> mExistingMemberContactIds = new ArrayList<Long>();
+    private SuggestedMemberIndex mIndex;
+
+    // Contacts that are members of the group, shared with the editor
+    private volatile Set<Long> mExistingMemberContactIds = Collections.emptySet();
+    // Contacts picked from the suggestions that the editor has not loaded yet
+    private final Set<Long> mPendingMemberContactIds =
+            Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 
     private static final int SUGGESTIONS_LIMIT = 5;
 
     public SuggestedMemberListAdapter(Context context, int textViewResourceId) {
         super(context, textViewResourceId);
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        mPhotoManager = ContactPhotoManager.getInstance(context);
     }
 
     public void setAccountType(String accountType) {
@@ -108,48 +110,95 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
         mContentResolver = resolver;
     }
 
-    public void updateExistingMembersList(List<GroupEditorFragment.Member> list) {
-        mExistingMemberContactIds.clear();
-        for (GroupEditorFragment.Member member : list) {
-            mExistingMemberContactIds.add(member.getContactId());
+    /**
+     * Loads the names of the raw contacts of the account in the background, so that the first
+     * suggestions don't have to wait for them.
+     */
+    public void preloadIndex() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final SuggestedMemberIndex index = getIndex();
+                if (index != null) {
+                    index.preload();
+                }
+            }
+        });
+    }
+
+    /**
+     * Releases the name index. Must be called once the adapter is not used anymore.
+     */
+    public synchronized void close() {
+        if (mIndex != null) {
+            mIndex.close();
+            mIndex = null;
+        }
+    }
+
+    private synchronized SuggestedMemberIndex getIndex() {
+        if (mContentResolver == null) {
+            return null;
+        }
+        if (mIndex != null && !mIndex.isFor(mAccountType, mAccountName, mDataSet)) {
+            mIndex.close();
+            mIndex = null;
+        }
+        if (mIndex == null) {
+            mIndex = new SuggestedMemberIndex(mContentResolver, mAccountType, mAccountName,
+                    mDataSet);
         }
+        return mIndex;
+    }
+
+    /**
+     * Sets the IDs of the contacts that are already members of the group, which are not
+     * suggested. The set is read from the filter thread, so it must be safe to read from any
+     * thread, see {@link GroupMemberships#getContactIds}.
+     */
+    public void setExistingMemberContactIds(Set<Long> contactIds) {
+        mExistingMemberContactIds = contactIds;
     }
 
     public void addNewMember(long contactId) {
-        mExistingMemberContactIds.add(contactId);
+        mPendingMemberContactIds.add(contactId);
     }
 
     public void removeMember(long contactId) {
-        if (mExistingMemberContactIds.contains(contactId)) {
-            mExistingMemberContactIds.remove(contactId);
-        }
+        mPendingMemberContactIds.remove(contactId);
+    }
+
+    private static class ViewHolder {
+        TextView text1;
+        TextView text2;
+        ImageView icon;
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
         View result = convertView;
+        ViewHolder holder;
         if (result == null) {
             result = mInflater.inflate(R.layout.group_member_suggestion, parent, false);
+            holder = new ViewHolder();
+            holder.text1 = (TextView) result.findViewById(R.id.text1);
+            holder.text2 = (TextView) result.findViewById(R.id.text2);
+            holder.icon = (ImageView) result.findViewById(R.id.icon);
+            result.setTag(R.id.icon, holder);
+        } else {
+            holder = (ViewHolder) result.getTag(R.id.icon);
         }
-        // TODO: Use a viewholder
         SuggestedMember member = getItem(position);
-        TextView text1 = (TextView) result.findViewById(R.id.text1);
-        TextView text2 = (TextView) result.findViewById(R.id.text2);
-        ImageView icon = (ImageView) result.findViewById(R.id.icon);
-        text1.setText(member.getDisplayName());
+        holder.text1.setText(member.getDisplayName());
         if (member.hasExtraInfo()) {
-            text2.setText(member.getExtraInfo());
-        } else {
-            text2.setVisibility(View.GONE);
-        }
-        byte[] byteArray = member.getPhotoByteArray();
-        if (byteArray == null) {
-            icon.setImageDrawable(ContactPhotoManager.getDefaultAvatarDrawableForContact(
-                    icon.getResources(), false, null));
+            holder.text2.setText(member.getExtraInfo());
+            holder.text2.setVisibility(View.VISIBLE);
         } else {
-            Bitmap bitmap = BitmapFactory.decodeByteArray(byteArray, 0, byteArray.length);
-            icon.setImageBitmap(bitmap);
+            holder.text2.setVisibility(View.GONE);
         }
+        // The thumbnail is decoded and cached off the UI thread by the photo manager
+        mPhotoManager.loadThumbnail(holder.icon, member.getPhotoId(), false /* darkTheme */,
+                false /* isCircular */, null /* defaultImageRequest */);
         result.setTag(member);
         return result;
     }
@@ -182,54 +231,20 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
             List<SuggestedMember> suggestionsList = new ArrayList<SuggestedMember>();
             HashMap<Long, SuggestedMember> suggestionsMap = new HashMap<Long, SuggestedMember>();
 
-            // First query for all the raw contacts that match the given search query
-            // and have the same account name and type as specified in this adapter
-            String searchQuery = prefix.toString() + "%";
-            String accountClause = RawContacts.ACCOUNT_NAME + "=? AND " +
-                    RawContacts.ACCOUNT_TYPE + "=?";
-            String[] args;
-            if (mDataSet == null) {
-                accountClause += " AND " + RawContacts.DATA_SET + " IS NULL";
-                args = new String[] {mAccountName, mAccountType, searchQuery, searchQuery};
-            } else {
-                accountClause += " AND " + RawContacts.DATA_SET + "=?";
-                args = new String[] {
-                        mAccountName, mAccountType, mDataSet, searchQuery, searchQuery
-                };
-            }
-
-            Cursor cursor = mContentResolver.query(
-                    RawContacts.CONTENT_URI, PROJECTION_FILTERED_MEMBERS,
-                    accountClause + " AND (" +
-                    RawContacts.DISPLAY_NAME_PRIMARY + " LIKE ? OR " +
-                    RawContacts.DISPLAY_NAME_ALTERNATIVE + " LIKE ? )",
-                    args, RawContacts.DISPLAY_NAME_PRIMARY + " COLLATE LOCALIZED ASC");
-
-            if (cursor == null) {
+            // Look up the raw contacts that match the given search query and have the same
+            // account name and type as specified in this adapter, skipping existing group members
+            final SuggestedMemberIndex index = getIndex();
+            if (index == null) {
                 return results;
             }
-
-            // Read back the results from the cursor and filter out existing group members.
-            // For valid suggestions, add them to the hash map of suggested members.
-            try {
-                cursor.moveToPosition(-1);
-                while (cursor.moveToNext() && suggestionsMap.keySet().size() < SUGGESTIONS_LIMIT) {
-                    long rawContactId = cursor.getLong(RAW_CONTACT_ID_COLUMN_INDEX);
-                    long contactId = cursor.getLong(CONTACT_ID_COLUMN_INDEX);
-                    // Filter out contacts that have already been added to this group
-                    if (mExistingMemberContactIds.contains(contactId)) {
-                        continue;
-                    }
-                    // Otherwise, add the contact as a suggested new group member
-                    String displayName = cursor.getString(DISPLAY_NAME_PRIMARY_COLUMN_INDEX);
-                    SuggestedMember member = new SuggestedMember(rawContactId, displayName,
-                            contactId);
-                    // Store the member in the list of suggestions and add it to the hash map too.
-                    suggestionsList.add(member);
-                    suggestionsMap.put(rawContactId, member);
-                }
-            } finally {
-                cursor.close();
+            for (SuggestedMemberIndex.Entry entry : index.query(prefix.toString(),
+                    SUGGESTIONS_LIMIT,
+                    Sets.union(mExistingMemberContactIds, mPendingMemberContactIds))) {
+                SuggestedMember member = new SuggestedMember(entry.rawContactId,
+                        entry.displayName, entry.contactId);
+                // Store the member in the list of suggestions and add it to the hash map too.
+                suggestionsList.add(member);
+                suggestionsMap.put(entry.rawContactId, member);
             }
 
             int numSuggestions = suggestionsMap.keySet().size();
@@ -276,9 +291,9 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
                         }
                         String mimetype = memberDataCursor.getString(MIMETYPE_COLUMN_INDEX);
                         if (Photo.CONTENT_ITEM_TYPE.equals(mimetype)) {
-                            // Set photo
-                            byte[] bitmapArray = memberDataCursor.getBlob(PHOTO_COLUMN_INDEX);
-                            member.setPhotoByteArray(bitmapArray);
+                            // Set photo. Only the ID of the data row is kept, the thumbnail is
+                            // loaded when the suggestion is displayed.
+                            member.setPhotoId(memberDataCursor.getLong(DATA_ID_COLUMN_INDEX));
                         } else if (Email.CONTENT_ITEM_TYPE.equals(mimetype) ||
                                 Phone.CONTENT_ITEM_TYPE.equals(mimetype)) {
                             // Set at most 1 extra piece of contact info that can be a phone number or
@@ -328,7 +343,7 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
         private long mContactId;
         private String mDisplayName;
         private String mExtraInfo;
-        private byte[] mPhoto;
+        private long mPhotoId;
 
         public SuggestedMember(long rawContactId, String displayName, long contactId) {
             mRawContactId = rawContactId;
@@ -352,8 +367,11 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
             return mContactId;
         }
 
-        public byte[] getPhotoByteArray() {
-            return mPhoto;
+        /**
+         * Returns the ID of the photo data row, or 0 if there is no photo.
+         */
+        public long getPhotoId() {
+            return mPhotoId;
         }
 
         public boolean hasExtraInfo() {
@@ -367,8 +385,8 @@ public class SuggestedMemberListAdapter extends ArrayAdapter<SuggestedMember> {
             mExtraInfo = info;
         }
 
-        public void setPhotoByteArray(byte[] photo) {
-            mPhoto = photo;
+        public void setPhotoId(long photoId) {
+            mPhotoId = photoId;
         }
 
         @Override
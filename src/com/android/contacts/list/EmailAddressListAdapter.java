@@ -147,8 +147,8 @@ public class EmailAddressListAdapter extends ContactEntryListAdapter {
             final int type = cursor.getInt(EmailQuery.EMAIL_TYPE);
             final String customLabel = cursor.getString(EmailQuery.EMAIL_LABEL);
 
-            // TODO cache
-            label = Email.getTypeLabel(getContext().getResources(), type, customLabel);
+            label = TypeLabelCache.getTypeLabel(getContext().getResources(),
+                    Email.CONTENT_ITEM_TYPE, type, customLabel);
         }
         view.setLabel(label);
         view.showData(cursor, EmailQuery.EMAIL_ADDRESS);
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.util.LruCache;
+import android.util.SparseBooleanArray;
+
+import com.android.contacts.GroupMemberLoader;
+import com.android.contacts.GroupMemberLoader.GroupDetailQuery;
+import com.android.contacts.GroupMemberLoader.GroupMemberIdQuery;
+import com.google.common.collect.Maps;
+
+import java.util.HashMap;
+
+/**
+ * Pages through the members of a group for {@link GroupMemberTileAdapter}. Only the IDs of
+ * the membership rows are loaded upfront; the rows to display are queried a window at a time
+ * in the background, and only a few windows are kept in memory.
+ */
+public class GroupMemberPager {
+
+    public interface Listener {
+        /**
+         * Called on the UI thread when a window of members was loaded.
+         */
+        public void onWindowLoaded();
+    }
+
+    /** Number of members queried at a time. */
+    public static final int WINDOW_SIZE = 100;
+
+    private static final int MAX_WINDOWS = 4;
+
+    /**
+     * The rows of a window, and the position of each membership row in them. The rows don't
+     * necessarily come back in the order of the IDs: a member may have been renamed or removed
+     * since the IDs were loaded.
+     */
+    private static final class Window {
+        final Cursor cursor;
+        final HashMap<Long, Integer> positions;
+
+        Window(Cursor cursor) {
+            this.cursor = cursor;
+            positions = Maps.newHashMapWithExpectedSize(cursor.getCount());
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                positions.put(cursor.getLong(GroupDetailQuery.DATA_ID), cursor.getPosition());
+            }
+        }
+    }
+
+    private final Context mContext;
+    private final long[] mDataIds;
+    private final Listener mListener;
+
+    private final LruCache<Integer, Window> mWindows = new LruCache<Integer, Window>(MAX_WINDOWS) {
+        @Override
+        protected void entryRemoved(boolean evicted, Integer key, Window oldValue,
+                Window newValue) {
+            oldValue.cursor.close();
+        }
+    };
+
+    private final SparseBooleanArray mPendingWindows = new SparseBooleanArray();
+    private boolean mClosed;
+
+    /**
+     * @param cursor the result of
+     *     {@link GroupMemberLoader#constructLoaderForGroupMemberIdsQuery}
+     */
+    public GroupMemberPager(Context context, Cursor cursor, Listener listener) {
+        mContext = context.getApplicationContext();
+        mListener = listener;
+        mDataIds = new long[cursor.getCount()];
+        cursor.moveToPosition(-1);
+        int i = 0;
+        while (cursor.moveToNext() && i < mDataIds.length) {
+            mDataIds[i++] = cursor.getLong(GroupMemberIdQuery.DATA_ID);
+        }
+    }
+
+    public int getCount() {
+        return mDataIds.length;
+    }
+
+    /**
+     * Returns the window holding the member at the given position, moved to the row of the
+     * member, or null if the window is not loaded yet or no longer holds the member. In the
+     * former case the window is loaded, and the listener called once it is available.
+     */
+    public Cursor getMember(int position) {
+        if (position < 0 || position >= mDataIds.length) {
+            return null;
+        }
+        final int index = position / WINDOW_SIZE;
+        final Window window = mWindows.get(index);
+        if (window == null) {
+            loadWindow(index);
+            return null;
+        }
+        final Integer positionInWindow = window.positions.get(mDataIds[position]);
+        if (positionInWindow == null || !window.cursor.moveToPosition(positionInWindow)) {
+            return null;
+        }
+        return window.cursor;
+    }
+
+    /**
+     * Loads the windows of the visible members and of the window that follows them, so that
+     * the rows are ready before they are scrolled into view.
+     */
+    public void prefetch(int firstPosition, int count) {
+        if (mDataIds.length == 0) {
+            return;
+        }
+        final int first = Math.max(firstPosition, 0) / WINDOW_SIZE;
+        final int last = Math.min(firstPosition + count + WINDOW_SIZE,
+                mDataIds.length - 1) / WINDOW_SIZE;
+        for (int window = first; window <= last; window++) {
+            if (mWindows.get(window) == null) {
+                loadWindow(window);
+            }
+        }
+    }
+
+    /**
+     * Releases the loaded windows. The pager can't be used afterwards.
+     */
+    public void close() {
+        mClosed = true;
+        mWindows.evictAll();
+    }
+
+    private void loadWindow(final int window) {
+        if (mClosed || mPendingWindows.get(window)) {
+            return;
+        }
+        mPendingWindows.put(window, true);
+        final int start = window * WINDOW_SIZE;
+        final int end = Math.min(start + WINDOW_SIZE, mDataIds.length);
+        new AsyncTask<Void, Void, Window>() {
+            @Override
+            protected Window doInBackground(Void... params) {
+                final Cursor cursor = GroupMemberLoader.queryGroupDetailWindow(mContext,
+                        mDataIds, start, end);
+                // Fill the cursor window and index it here rather than on the UI thread
+                return cursor == null ? null : new Window(cursor);
+            }
+
+            @Override
+            protected void onPostExecute(Window result) {
+                mPendingWindows.delete(window);
+                if (result == null) {
+                    return;
+                }
+                if (mClosed) {
+                    result.cursor.close();
+                    return;
+                }
+                mWindows.put(window, result);
+                mListener.onWindowLoaded();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+}
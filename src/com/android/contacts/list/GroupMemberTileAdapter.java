@@ -32,10 +32,34 @@ import java.util.ArrayList;
  */
 public class GroupMemberTileAdapter extends ContactTileAdapter {
 
+    private GroupMemberPager mPager;
+
     public GroupMemberTileAdapter(Context context, ContactTileView.Listener listener, int numCols) {
         super(context, listener, numCols, DisplayType.GROUP_MEMBERS);
     }
 
+    /**
+     * Shows the members of a {@link GroupMemberPager} instead of those of a contact cursor.
+     * The previous pager, if any, is closed.
+     */
+    public void setPager(GroupMemberPager pager) {
+        if (mPager != null && mPager != pager) {
+            mPager.close();
+        }
+        mPager = pager;
+        bindColumnIndices();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Loads the members of the given rows ahead of time, if the members come from a pager.
+     */
+    public void prefetchRows(int firstRow, int rowCount) {
+        if (mPager != null) {
+            mPager.prefetch(firstRow * mColumnCount, rowCount * mColumnCount);
+        }
+    }
+
     @Override
     protected void bindColumnIndices() {
         mIdIndex = GroupMemberLoader.GroupDetailQuery.CONTACT_ID;
@@ -64,6 +88,9 @@ public class GroupMemberTileAdapter extends ContactTileAdapter {
 
     @Override
     public int getCount() {
+        if (mPager != null) {
+            return getRowCount(mPager.getCount());
+        }
         if (mContactCursor == null || mContactCursor.isClosed()) {
             return 0;
         }
@@ -77,7 +104,14 @@ public class GroupMemberTileAdapter extends ContactTileAdapter {
         int contactIndex = position * mColumnCount;
 
         for (int columnCounter = 0; columnCounter < mColumnCount; columnCounter++) {
-            resultList.add(createContactEntryFromCursor(mContactCursor, contactIndex));
+            if (mPager != null) {
+                // Members whose window isn't loaded yet are left blank until it is
+                final Cursor member = mPager.getMember(contactIndex);
+                resultList.add(member == null
+                        ? null : createContactEntryFromCursor(member, member.getPosition()));
+            } else {
+                resultList.add(createContactEntryFromCursor(mContactCursor, contactIndex));
+            }
             contactIndex++;
         }
         return resultList;
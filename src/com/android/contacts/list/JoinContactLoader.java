@@ -20,6 +20,16 @@ import android.content.CursorLoader;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A specialized loader for the Join Contacts UI.  It executes two queries:
@@ -29,9 +39,19 @@ import android.net.Uri;
  * {@code ((JoinContactLoaderResult) result).suggestionCursor }
  */
 public class JoinContactLoader extends CursorLoader {
+    private static final String TAG = "JoinContactLoader";
+
+    // Runs the suggestions queries, so that they don't wait behind other loaders
+    private static final ThreadPoolExecutor sSuggestionExecutor = new ThreadPoolExecutor(
+            2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sSuggestionExecutor.allowCoreThreadTimeOut(true);
+    }
 
     private String[] mProjection;
     private Uri mSuggestionUri;
+    private CancellationSignal mSuggestionCancellationSignal;
 
     /**
      * Actual returned class.  It's guaranteed that this loader always returns an instance of this
@@ -79,27 +99,118 @@ public class JoinContactLoader extends CursorLoader {
 
     @Override
     public Cursor loadInBackground() {
-        // First execute the suggestions query, then call super.loadInBackground
-        // to load the entire list
-        final Cursor suggestionsCursor = getContext().getContentResolver()
-                .query(mSuggestionUri, mProjection, null, null, null);
-        if (suggestionsCursor == null) {
-            return null;
+        final CancellationSignal suggestionCancellationSignal;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mSuggestionCancellationSignal = new CancellationSignal();
+            suggestionCancellationSignal = mSuggestionCancellationSignal;
         }
-        Cursor cursorToClose = suggestionsCursor;
+
+        // Execute the suggestions query on another thread, while super.loadInBackground loads
+        // the entire list on this one
+        final FutureTask<Cursor> suggestionTask = new FutureTask<Cursor>(new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return querySuggestions(suggestionCancellationSignal);
+            }
+        });
+        sSuggestionExecutor.execute(suggestionTask);
+
+        Cursor baseCursor = null;
+        Cursor suggestionsCursor = null;
+        boolean succeeded = false;
         try {
-            final Cursor baseCursor = super.loadInBackground();
-            if (baseCursor != null) {
-                final JoinContactLoaderResult result =
-                        new JoinContactLoaderResult(baseCursor, suggestionsCursor);
-                cursorToClose = null;
-                return result;
+            baseCursor = super.loadInBackground();
+            suggestionsCursor = getSuggestions(suggestionTask);
+            if (baseCursor == null || suggestionsCursor == null) {
+                return null;
             }
+            final JoinContactLoaderResult result =
+                    new JoinContactLoaderResult(baseCursor, suggestionsCursor);
+            succeeded = true;
+            return result;
         } finally {
-            if (cursorToClose != null) {
-                cursorToClose.close();
+            if (!succeeded) {
+                if (baseCursor != null) {
+                    baseCursor.close();
+                }
+                if (suggestionsCursor != null) {
+                    suggestionsCursor.close();
+                } else {
+                    discardSuggestions(suggestionTask, suggestionCancellationSignal);
+                }
+            }
+            synchronized (this) {
+                mSuggestionCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+        synchronized (this) {
+            if (mSuggestionCancellationSignal != null) {
+                mSuggestionCancellationSignal.cancel();
+            }
+        }
+    }
+
+    private Cursor querySuggestions(CancellationSignal cancellationSignal) {
+        final Cursor cursor = getContext().getContentResolver().query(mSuggestionUri,
+                mProjection, null, null, null, cancellationSignal);
+        if (cursor != null) {
+            try {
+                // Fill the cursor window on this thread too
+                cursor.getCount();
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Waits for the suggestions query and returns its cursor, or rethrows its failure.
+     */
+    private static Cursor getSuggestions(FutureTask<Cursor> suggestionTask) {
+        try {
+            return suggestionTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperationCanceledException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Cancels the suggestions query after the load failed, and closes its cursor if it still
+     * produces one.
+     */
+    private static void discardSuggestions(FutureTask<Cursor> suggestionTask,
+            CancellationSignal cancellationSignal) {
+        cancellationSignal.cancel();
+        if (Thread.currentThread().isInterrupted()) {
+            Log.w(TAG, "Interrupted, not waiting for the suggestions query");
+            return;
+        }
+        try {
+            final Cursor cursor = suggestionTask.get();
+            if (cursor != null) {
+                cursor.close();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The query failed or was cancelled, so there is no cursor to close
         }
-        return null;
     }
 }
@@ -105,8 +105,8 @@ public class LegacyPhoneNumberListAdapter extends ContactEntryListAdapter {
             final int type = cursor.getInt(PHONE_TYPE_COLUMN_INDEX);
             final String customLabel = cursor.getString(PHONE_LABEL_COLUMN_INDEX);
 
-            // TODO cache
-            label = Phone.getTypeLabel(getContext().getResources(), type, customLabel);
+            label = TypeLabelCache.getTypeLabel(getContext().getResources(),
+                    Phone.CONTENT_ITEM_TYPE, type, customLabel);
         }
         view.setLabel(label);
         view.setPhoneNumber(cursor.getString(PHONE_NUMBER_COLUMN_INDEX), /* countryIso */ null);
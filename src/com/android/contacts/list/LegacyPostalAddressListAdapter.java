@@ -106,8 +106,8 @@ public class LegacyPostalAddressListAdapter extends ContactEntryListAdapter {
             final int type = cursor.getInt(POSTAL_TYPE_COLUMN_INDEX);
             final String customLabel = cursor.getString(POSTAL_LABEL_COLUMN_INDEX);
 
-            // TODO cache
-            label = StructuredPostal.getTypeLabel(getContext().getResources(), type, customLabel);
+            label = TypeLabelCache.getTypeLabel(getContext().getResources(),
+                    StructuredPostal.CONTENT_ITEM_TYPE, type, customLabel);
         }
         view.setLabel(label);
         view.showData(cursor, POSTAL_NUMBER_COLUMN_INDEX);
@@ -138,8 +138,8 @@ public class PostalAddressListAdapter extends ContactEntryListAdapter {
             final int type = cursor.getInt(PostalQuery.POSTAL_TYPE);
             final String customLabel = cursor.getString(PostalQuery.POSTAL_LABEL);
 
-            // TODO cache
-            label = StructuredPostal.getTypeLabel(getContext().getResources(), type, customLabel);
+            label = TypeLabelCache.getTypeLabel(getContext().getResources(),
+                    StructuredPostal.CONTENT_ITEM_TYPE, type, customLabel);
         }
         view.setLabel(label);
         view.showData(cursor, PostalQuery.POSTAL_ADDRESS);
@@ -17,12 +17,15 @@ package com.android.contacts.list;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Handler;
+import android.preference.PreferenceManager;
 import android.provider.ContactsContract.ProviderStatus;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.google.common.collect.Lists;
@@ -70,6 +73,10 @@ public class ProviderStatusWatcher extends ContentObserver {
      */
     private static final int LOAD_WAIT_TIMEOUT_MS = 1000;
 
+    /** Keys of the last known status, saved across process restarts. */
+    private static final String KEY_LAST_STATUS = "ProviderStatusWatcher.lastStatus";
+    private static final String KEY_LAST_STATUS_DATA = "ProviderStatusWatcher.lastStatusData";
+
     private static ProviderStatusWatcher sInstance;
 
     private final Context mContext;
@@ -82,7 +89,10 @@ public class ProviderStatusWatcher extends ContentObserver {
     private LoaderTask mLoaderTask;
 
     /** Last known provider status.  This can be changed on a worker thread. */
-    private Status mProviderStatus;
+    private volatile Status mProviderStatus;
+
+    /** Status saved by a previous process, until {@link #mProviderStatus} is loaded. */
+    private Status mSavedProviderStatus;
 
     private final ArrayList<ProviderStatusListener> mListeners = Lists.newArrayList();
 
@@ -185,7 +195,7 @@ public class ProviderStatusWatcher extends ContentObserver {
      * (If {@link ProviderStatus#STATUS_UPGRADING} is returned, the app (should) shows an according
      * message, like "contacts are being updated".)
      */
-    public Status getProviderStatus() {
+    public Status waitForProviderStatus() {
         waitForLoaded();
 
         if (mProviderStatus == null) {
@@ -195,6 +205,48 @@ public class ProviderStatusWatcher extends ContentObserver {
         return mProviderStatus;
     }
 
+    /**
+     * @return last known provider status, without waiting.
+     *
+     * Until the status has been loaded by this process, this returns the status last loaded by
+     * a previous one, or {@link ProviderStatus#STATUS_NORMAL} if it was never loaded.  If no
+     * query is running, one is started; listeners are called once it returns, so callers should
+     * be ready for the status to change.  See {@link #waitForProviderStatus()} for a blocking
+     * version.
+     */
+    public Status getProviderStatus() {
+        final Status status = mProviderStatus;
+        if (status != null) {
+            return status;
+        }
+        if (mLoaderTask == null) {
+            startLoading();
+        }
+        return getSavedProviderStatus();
+    }
+
+    private Status getSavedProviderStatus() {
+        if (mSavedProviderStatus == null) {
+            final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+            mSavedProviderStatus = new Status(
+                    prefs.getInt(KEY_LAST_STATUS, ProviderStatus.STATUS_NORMAL),
+                    prefs.getString(KEY_LAST_STATUS_DATA, null));
+        }
+        return mSavedProviderStatus;
+    }
+
+    private void saveProviderStatus(Status status) {
+        final Status saved = getSavedProviderStatus();
+        if (saved.status == status.status && TextUtils.equals(saved.data, status.data)) {
+            return;
+        }
+        mSavedProviderStatus = status;
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putInt(KEY_LAST_STATUS, status.status)
+                .putString(KEY_LAST_STATUS_DATA, status.data)
+                .apply();
+    }
+
     private void waitForLoaded() {
         if (mProviderStatus == null) {
             if (mLoaderTask == null) {
@@ -259,6 +311,7 @@ public class ProviderStatusWatcher extends ContentObserver {
         protected void onPostExecute(Boolean loaded) {
             cleanUp();
             if (loaded != null && loaded) {
+                saveProviderStatus(mProviderStatus);
                 notifyListeners();
             }
         }
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.list;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.provider.ContactsContract.CommonDataKinds.Email;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import com.google.common.base.Objects;
+
+import java.util.Locale;
+
+/**
+ * Cache of the type labels shown by the list adapters of this package, so that binding a row
+ * doesn't resolve string resources. Labels are keyed by mimetype, type, custom label and
+ * locale, and the cache is cleared when the configuration changes.
+ */
+final class TypeLabelCache {
+
+    private static final int MAX_SIZE = 200;
+
+    private static final class Key {
+        private String mMimeType;
+        private int mType;
+        private String mLabel;
+        private Locale mLocale;
+
+        private Key() {
+        }
+
+        private Key(Key key) {
+            set(key.mMimeType, key.mType, key.mLabel, key.mLocale);
+        }
+
+        private void set(String mimeType, int type, String label, Locale locale) {
+            mMimeType = mimeType;
+            mType = type;
+            mLabel = label;
+            mLocale = locale;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mType == other.mType
+                    && TextUtils.equals(mMimeType, other.mMimeType)
+                    && TextUtils.equals(mLabel, other.mLabel)
+                    && Objects.equal(mLocale, other.mLocale);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(mMimeType, mType, mLabel, mLocale);
+        }
+    }
+
+    private static final LruCache<Key, CharSequence> sLabels =
+            new LruCache<Key, CharSequence>(MAX_SIZE);
+
+    // Reused for lookups, so that a cache hit doesn't allocate a key
+    private static final Key sLookupKey = new Key();
+
+    private static Configuration sConfiguration;
+
+    private TypeLabelCache() {
+    }
+
+    /**
+     * Returns the label of a type of {@link Email}, {@link Phone} or {@link StructuredPostal}
+     * data, as returned by their {@code getTypeLabel} methods.
+     */
+    public static synchronized CharSequence getTypeLabel(Resources res, String mimeType,
+            int type, String customLabel) {
+        final Configuration configuration = res.getConfiguration();
+        if (sConfiguration == null || sConfiguration.diff(configuration) != 0) {
+            sLabels.evictAll();
+            sConfiguration = new Configuration(configuration);
+        }
+
+        sLookupKey.set(mimeType, type, customLabel, configuration.locale);
+        CharSequence label = sLabels.get(sLookupKey);
+        if (label == null) {
+            label = resolveTypeLabel(res, mimeType, type, customLabel);
+            if (label != null) {
+                sLabels.put(new Key(sLookupKey), label);
+            }
+        }
+        return label;
+    }
+
+    private static CharSequence resolveTypeLabel(Resources res, String mimeType, int type,
+            String customLabel) {
+        if (Email.CONTENT_ITEM_TYPE.equals(mimeType)) {
+            return Email.getTypeLabel(res, type, customLabel);
+        } else if (Phone.CONTENT_ITEM_TYPE.equals(mimeType)) {
+            return Phone.getTypeLabel(res, type, customLabel);
+        } else if (StructuredPostal.CONTENT_ITEM_TYPE.equals(mimeType)) {
+            return StructuredPostal.getTypeLabel(res, type, customLabel);
+        }
+        throw new IllegalArgumentException("Unsupported mimetype: " + mimeType);
+    }
+}
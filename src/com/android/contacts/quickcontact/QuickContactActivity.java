@@ -206,6 +206,7 @@ public class QuickContactActivity extends ContactsActivity {
      * instead of referencing this URI.
      */
     private Uri mLookupUri;
+    private NfcHandler mNfcHandler;
     private String[] mExcludeMimes;
     private int mExtraMode;
     private int mStatusBarColor;
@@ -820,7 +821,13 @@ public class QuickContactActivity extends ContactsActivity {
             mCachedCp2DataCardModel = null;
         }
 
-        NfcHandler.register(this, mLookupUri);
+        // Register the new handler first, so that the message it shares with the old one, if
+        // the contact is the same, is kept
+        final NfcHandler previousNfcHandler = mNfcHandler;
+        mNfcHandler = NfcHandler.register(this, mLookupUri);
+        if (previousNfcHandler != null) {
+            previousNfcHandler.unregister();
+        }
     }
 
     private void destroyInteractionLoaders() {
@@ -2110,6 +2117,15 @@ public class QuickContactActivity extends ContactsActivity {
         mRecentDataTask.execute();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (mNfcHandler != null) {
+            mNfcHandler.unregister();
+            mNfcHandler = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onStop() {
         super.onStop();
@@ -20,6 +20,7 @@ package com.android.contacts.util;
 import android.content.ClipData;
 import android.content.Context;
 import android.content.Intent;
+import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -33,10 +34,12 @@ import com.google.common.io.Closeables;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -148,25 +151,43 @@ public class ContactPhotoUtils {
      */
     public static boolean savePhotoFromUriToUri(Context context, Uri inputUri, Uri outputUri,
             boolean deleteAfterSave) {
+        return copyPhotoFromUriToUri(context, inputUri, outputUri, deleteAfterSave) >= 0;
+    }
+
+    /**
+     * Given an input photo stored in a uri, save it to a destination uri. When the input is a
+     * plain file, the bytes are transferred between file channels instead of through a heap
+     * buffer.
+     *
+     * @return the number of bytes written, or -1 if the photo could not be saved
+     */
+    public static long copyPhotoFromUriToUri(Context context, Uri inputUri, Uri outputUri,
+            boolean deleteAfterSave) {
         FileOutputStream outputStream = null;
         InputStream inputStream = null;
         try {
             outputStream = context.getContentResolver()
                     .openAssetFileDescriptor(outputUri, "rw").createOutputStream();
-            inputStream = context.getContentResolver().openInputStream(
-                    inputUri);
-
-            final byte[] buffer = new byte[16 * 1024];
-            int length;
-            int totalLength = 0;
-            while ((length = inputStream.read(buffer)) > 0) {
-                outputStream.write(buffer, 0, length);
-                totalLength += length;
+            final AssetFileDescriptor inputDescriptor = context.getContentResolver()
+                    .openAssetFileDescriptor(inputUri, "r");
+            if (inputDescriptor == null) {
+                throw new FileNotFoundException("No photo at " + inputUri);
+            }
+            inputStream = inputDescriptor.createInputStream();
+
+            final long totalLength;
+            if (inputDescriptor.getStartOffset() == 0
+                    && inputDescriptor.getDeclaredLength() == AssetFileDescriptor.UNKNOWN_LENGTH) {
+                // The stream covers the whole file, so its channel can be used directly
+                totalLength = copy((FileInputStream) inputStream, outputStream);
+            } else {
+                totalLength = copy(inputStream, outputStream, 0);
             }
             Log.v(TAG, "Wrote " + totalLength + " bytes for photo " + inputUri.toString());
+            return totalLength;
         } catch (IOException e) {
             Log.e(TAG, "Failed to write photo: " + inputUri.toString() + " because: " + e);
-            return false;
+            return -1;
         } finally {
             Closeables.closeQuietly(inputStream);
             Closeables.closeQuietly(outputStream);
@@ -174,7 +195,47 @@ public class ContactPhotoUtils {
                 context.getContentResolver().delete(inputUri, null, null);
             }
         }
-        return true;
+    }
+
+    private static long copy(FileInputStream inputStream, FileOutputStream outputStream)
+            throws IOException {
+        final FileChannel inputChannel = inputStream.getChannel();
+        long size;
+        try {
+            size = inputChannel.size();
+        } catch (IOException e) {
+            // Not a regular file
+            size = 0;
+        }
+
+        long totalLength = 0;
+        if (size > 0) {
+            // The output is often a pipe to the provider, so only the input is positioned
+            final FileChannel outputChannel = outputStream.getChannel();
+            while (totalLength < size) {
+                final long length = inputChannel.transferTo(totalLength, size - totalLength,
+                        outputChannel);
+                if (length <= 0) {
+                    break;
+                }
+                totalLength += length;
+            }
+            inputChannel.position(totalLength);
+        }
+
+        // Copy whatever the channels did not transfer
+        return copy(inputStream, outputStream, totalLength);
+    }
+
+    private static long copy(InputStream inputStream, FileOutputStream outputStream,
+            long totalLength) throws IOException {
+        final byte[] buffer = new byte[16 * 1024];
+        int length;
+        while ((length = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, length);
+            totalLength += length;
+        }
+        return totalLength;
     }
 }
 
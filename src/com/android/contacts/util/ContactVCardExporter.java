@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.ParcelFileDescriptor;
+import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Data;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Closeables;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Writes the vCards of many contacts to a file descriptor on a background thread. The vCards
+ * are streamed from the provider a chunk of contacts at a time, so the contacts are never
+ * held in memory together.
+ */
+public class ContactVCardExporter extends AsyncTask<Void, Integer, Integer> {
+    private static final String TAG = "ContactVCardExporter";
+
+    /** Number of contacts whose vCards are requested from the provider at a time. */
+    private static final int CONTACTS_PER_REQUEST = 50;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public interface Listener {
+        /**
+         * Called on the UI thread after each chunk of contacts was written.
+         */
+        public void onExportProgress(int exportedCount, int totalCount);
+
+        /**
+         * Called on the UI thread once the export is over.
+         *
+         * @param exportedCount number of contacts written, or -1 if writing failed
+         */
+        public void onExportFinished(int exportedCount, int totalCount);
+
+        /**
+         * Called on the UI thread instead of {@link #onExportFinished} if the export was
+         * cancelled.
+         */
+        public void onExportCancelled(int totalCount);
+    }
+
+    private final ContentResolver mResolver;
+    private final List<String> mLookupKeys;
+    private final ParcelFileDescriptor mOutput;
+    private final Listener mListener;
+
+    /**
+     * @param lookupKeys the lookup keys of the contacts to export
+     * @param output where to write the vCards. It is closed once the export is over.
+     */
+    public ContactVCardExporter(ContentResolver resolver, List<String> lookupKeys,
+            ParcelFileDescriptor output, Listener listener) {
+        mResolver = resolver;
+        mLookupKeys = lookupKeys;
+        mOutput = output;
+        mListener = listener;
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        OutputStream outputStream = null;
+        try {
+            outputStream = new BufferedOutputStream(new FileOutputStream(
+                    mOutput.getFileDescriptor()), BUFFER_SIZE);
+            final int count = writeVCards(outputStream);
+            outputStream.flush();
+            return count;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to export " + mLookupKeys.size() + " contacts", e);
+            return -1;
+        } finally {
+            Closeables.closeQuietly(outputStream);
+            Closeables.closeQuietly(mOutput);
+        }
+    }
+
+    private int writeVCards(OutputStream outputStream) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int exportedCount = 0;
+        for (int start = 0; start < mLookupKeys.size(); start += CONTACTS_PER_REQUEST) {
+            final List<String> lookupKeys = mLookupKeys.subList(start,
+                    Math.min(start + CONTACTS_PER_REQUEST, mLookupKeys.size()));
+            final InputStream inputStream = mResolver.openInputStream(
+                    getMultiVCardUri(lookupKeys));
+            if (inputStream == null) {
+                throw new IOException("No vCards for " + lookupKeys.size() + " contacts");
+            }
+            try {
+                int length;
+                while ((length = inputStream.read(buffer)) > 0) {
+                    if (isCancelled()) {
+                        return exportedCount;
+                    }
+                    outputStream.write(buffer, 0, length);
+                }
+            } finally {
+                Closeables.closeQuietly(inputStream);
+            }
+            exportedCount += lookupKeys.size();
+            publishProgress(exportedCount);
+        }
+        return exportedCount;
+    }
+
+    private static Uri getMultiVCardUri(List<String> lookupKeys) {
+        if (lookupKeys.size() == 1) {
+            return Uri.withAppendedPath(Contacts.CONTENT_VCARD_URI, lookupKeys.get(0));
+        }
+        return Uri.withAppendedPath(Contacts.CONTENT_MULTI_VCARD_URI,
+                Uri.encode(TextUtils.join(":", lookupKeys)));
+    }
+
+    @Override
+    protected void onProgressUpdate(Integer... values) {
+        mListener.onExportProgress(values[0], mLookupKeys.size());
+    }
+
+    @Override
+    protected void onPostExecute(Integer result) {
+        mListener.onExportFinished(result, mLookupKeys.size());
+    }
+
+    @Override
+    protected void onCancelled(Integer result) {
+        mListener.onExportCancelled(mLookupKeys.size());
+    }
+
+    /**
+     * Returns the lookup keys of the members of a group. Must not be called on the UI thread.
+     */
+    public static ArrayList<String> queryGroupLookupKeys(ContentResolver resolver,
+            long groupId) {
+        return queryLookupKeys(resolver, Data.CONTENT_URI, Data.LOOKUP_KEY,
+                Data.MIMETYPE + "=? AND " + GroupMembership.GROUP_ROW_ID + "=?",
+                new String[] { GroupMembership.CONTENT_ITEM_TYPE, String.valueOf(groupId) });
+    }
+
+    /**
+     * Returns the lookup keys of all the contacts. Must not be called on the UI thread.
+     */
+    public static ArrayList<String> queryAllLookupKeys(ContentResolver resolver) {
+        return queryLookupKeys(resolver, Contacts.CONTENT_URI, Contacts.LOOKUP_KEY, null, null);
+    }
+
+    private static ArrayList<String> queryLookupKeys(ContentResolver resolver, Uri uri,
+            String column, String selection, String[] selectionArgs) {
+        final LinkedHashSet<String> lookupKeys = Sets.newLinkedHashSet();
+        final Cursor cursor = resolver.query(uri, new String[] { column }, selection,
+                selectionArgs, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    final String lookupKey = cursor.getString(0);
+                    if (lookupKey != null) {
+                        lookupKeys.add(lookupKey);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return Lists.newArrayList(lookupKeys);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.contacts.util;
+
+import android.database.DataSetObserver;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.widget.Adapter;
+
+/**
+ * Delays search-as-you-type queries until the user pauses typing, so that a list doesn't
+ * restart its loaders for every keystroke. The delay adapts to how long recent queries took to
+ * show results. Dispatching a query supersedes the previous one: the list restarts its loaders,
+ * which cancels the queries still in flight.
+ *
+ * All methods must be called on the UI thread.
+ */
+public class SearchQueryScheduler {
+
+    public interface Listener {
+        /**
+         * Called to run a query, typically by passing it to a list fragment.
+         */
+        public void onSearchQuery(String query);
+    }
+
+    /** Delay after a keystroke that doesn't extend the shown query. */
+    private static final long MIN_DELAY_MS = 30;
+
+    /** Longest delay, however slow the queries are. */
+    private static final long MAX_DELAY_MS = 300;
+
+    /** Delay until the latency of a query has been measured. */
+    private static final long INITIAL_DELAY_MS = 100;
+
+    private final Handler mHandler = new Handler();
+    private final Listener mListener;
+
+    private String mPendingQuery;
+    private String mDispatchedQuery;
+    private boolean mDispatching;
+    private long mDispatchTime = -1;
+    private long mAverageLatencyMillis = -1;
+
+    private Adapter mAdapter;
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatch(mPendingQuery);
+        }
+    };
+
+    private final DataSetObserver mObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            onResultsChanged();
+        }
+
+        @Override
+        public void onInvalidated() {
+            onResultsChanged();
+        }
+    };
+
+    public SearchQueryScheduler(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets the adapter showing the results, whose first change after a query tells how long
+     * the query took.
+     */
+    public void setAdapter(Adapter adapter) {
+        if (mAdapter == adapter) {
+            return;
+        }
+        if (mAdapter != null) {
+            mAdapter.unregisterDataSetObserver(mObserver);
+        }
+        mAdapter = adapter;
+        if (mAdapter != null) {
+            mAdapter.registerDataSetObserver(mObserver);
+        }
+    }
+
+    /**
+     * Schedules a query typed by the user, replacing the query waiting to be run if any.
+     */
+    public void schedule(String query) {
+        mHandler.removeCallbacks(mDispatchRunnable);
+        if (TextUtils.equals(query, mDispatchedQuery)) {
+            mPendingQuery = null;
+            return;
+        }
+        if (TextUtils.isEmpty(query)) {
+            // Clearing the query is cheap and expected to be instant
+            dispatch(query);
+            return;
+        }
+        mPendingQuery = query;
+        mHandler.postDelayed(mDispatchRunnable, getDelay(query));
+    }
+
+    /**
+     * Runs a query right away, dropping the query waiting to be run if any.
+     */
+    public void dispatchNow(String query) {
+        mHandler.removeCallbacks(mDispatchRunnable);
+        dispatch(query);
+    }
+
+    /**
+     * Drops the query waiting to be run, and stops watching the adapter.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mDispatchRunnable);
+        mPendingQuery = null;
+        setAdapter(null);
+    }
+
+    private long getDelay(String query) {
+        if (mDispatchedQuery == null || !query.startsWith(mDispatchedQuery)) {
+            // The shown results don't match the query, so don't leave them up for long
+            return MIN_DELAY_MS;
+        }
+        // The query extends the shown one, whose results are still relevant, so wait about as
+        // long as a query takes: fast typists then get a query per pause rather than per
+        // keystroke.
+        if (mAverageLatencyMillis < 0) {
+            return INITIAL_DELAY_MS;
+        }
+        return Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, mAverageLatencyMillis));
+    }
+
+    private void dispatch(String query) {
+        mPendingQuery = null;
+        mDispatchedQuery = query;
+        mDispatchTime = SystemClock.elapsedRealtime();
+        // Changes made while the listener runs come from the query being set, not its results
+        mDispatching = true;
+        try {
+            mListener.onSearchQuery(query);
+        } finally {
+            mDispatching = false;
+        }
+    }
+
+    private void onResultsChanged() {
+        if (mDispatching || mDispatchTime < 0 || TextUtils.isEmpty(mDispatchedQuery)) {
+            return;
+        }
+        final long latency = SystemClock.elapsedRealtime() - mDispatchTime;
+        mDispatchTime = -1;
+        if (mAverageLatencyMillis < 0) {
+            mAverageLatencyMillis = latency;
+        } else {
+            mAverageLatencyMillis = (3 * mAverageLatencyMillis + latency) / 4;
+        }
+    }
+}
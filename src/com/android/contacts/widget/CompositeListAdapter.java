@@ -40,6 +40,9 @@ public class CompositeListAdapter extends BaseAdapter {
     private ListAdapter[] mAdapters;
     private int[] mCounts;
     private int[] mViewTypeCounts;
+    // Position of the first item, and first view type, of each sub-adapter
+    private int[] mStarts;
+    private int[] mViewTypeStarts;
     private int mSize = 0;
     private int mCount = 0;
     private int mViewTypeCount = 0;
@@ -66,9 +69,11 @@ public class CompositeListAdapter extends BaseAdapter {
     }
 
     public CompositeListAdapter(int initialCapacity) {
-        mAdapters = new ListAdapter[INITIAL_CAPACITY];
-        mCounts = new int[INITIAL_CAPACITY];
-        mViewTypeCounts = new int[INITIAL_CAPACITY];
+        mAdapters = new ListAdapter[initialCapacity];
+        mCounts = new int[initialCapacity];
+        mViewTypeCounts = new int[initialCapacity];
+        mStarts = new int[initialCapacity];
+        mViewTypeStarts = new int[initialCapacity];
     }
 
     @VisibleForTesting
@@ -86,6 +91,14 @@ public class CompositeListAdapter extends BaseAdapter {
             int[] newViewTypeCounts = new int[newCapacity];
             System.arraycopy(mViewTypeCounts, 0, newViewTypeCounts, 0, mSize);
             mViewTypeCounts = newViewTypeCounts;
+
+            int[] newStarts = new int[newCapacity];
+            System.arraycopy(mStarts, 0, newStarts, 0, mSize);
+            mStarts = newStarts;
+
+            int[] newViewTypeStarts = new int[newCapacity];
+            System.arraycopy(mViewTypeStarts, 0, newViewTypeStarts, 0, mSize);
+            mViewTypeStarts = newViewTypeStarts;
         }
 
         adapter.registerDataSetObserver(mDataSetObserver);
@@ -95,9 +108,11 @@ public class CompositeListAdapter extends BaseAdapter {
 
         mAdapters[mSize] = adapter;
         mCounts[mSize] = count;
+        mStarts[mSize] = mCount;
         mCount += count;
         mAllItemsEnabled &= adapter.areAllItemsEnabled();
         mViewTypeCounts[mSize] = viewTypeCount;
+        mViewTypeStarts[mSize] = mViewTypeCount;
         mViewTypeCount += viewTypeCount;
         mSize++;
 
@@ -128,14 +143,40 @@ public class CompositeListAdapter extends BaseAdapter {
             int count = mAdapters[i].getCount();
             int viewTypeCount = mAdapters[i].getViewTypeCount();
             mCounts[i] = count;
+            mStarts[i] = mCount;
             mCount += count;
             mAllItemsEnabled &= mAdapters[i].areAllItemsEnabled();
+            mViewTypeCounts[i] = viewTypeCount;
+            mViewTypeStarts[i] = mViewTypeCount;
             mViewTypeCount += viewTypeCount;
         }
 
         mCacheValid = true;
     }
 
+    /**
+     * Returns the index of the sub-adapter holding the given position, which is the last
+     * sub-adapter starting at or before it. Empty sub-adapters start at the same position as
+     * the next one, so they are never returned.
+     */
+    private int findAdapter(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new ArrayIndexOutOfBoundsException(position);
+        }
+
+        int low = 0;
+        int high = mSize - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mStarts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
     public int getCount() {
         ensureCacheValid();
         return mCount;
@@ -143,30 +184,14 @@ public class CompositeListAdapter extends BaseAdapter {
 
     public Object getItem(int position) {
         ensureCacheValid();
-        int start = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return mAdapters[i].getItem(position - start);
-            }
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        int i = findAdapter(position);
+        return mAdapters[i].getItem(position - mStarts[i]);
     }
 
     public long getItemId(int position) {
         ensureCacheValid();
-        int start = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return mAdapters[i].getItemId(position - start);
-            }
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        int i = findAdapter(position);
+        return mAdapters[i].getItemId(position - mStarts[i]);
     }
 
     @Override
@@ -178,32 +203,14 @@ public class CompositeListAdapter extends BaseAdapter {
     @Override
     public int getItemViewType(int position) {
         ensureCacheValid();
-        int start = 0;
-        int viewTypeOffset = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return viewTypeOffset + mAdapters[i].getItemViewType(position - start);
-            }
-            viewTypeOffset += mViewTypeCounts[i];
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        int i = findAdapter(position);
+        return mViewTypeStarts[i] + mAdapters[i].getItemViewType(position - mStarts[i]);
     }
 
     public View getView(int position, View convertView, ViewGroup parent) {
         ensureCacheValid();
-        int start = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return mAdapters[i].getView(position - start, convertView, parent);
-            }
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        int i = findAdapter(position);
+        return mAdapters[i].getView(position - mStarts[i], convertView, parent);
     }
 
     @Override
@@ -215,16 +222,8 @@ public class CompositeListAdapter extends BaseAdapter {
     @Override
     public boolean isEnabled(int position) {
         ensureCacheValid();
-        int start = 0;
-        for (int i = 0; i < mCounts.length; i++) {
-            int end = start + mCounts[i];
-            if (position >= start && position < end) {
-                return mAdapters[i].areAllItemsEnabled()
-                        || mAdapters[i].isEnabled(position - start);
-            }
-            start = end;
-        }
-
-        throw new ArrayIndexOutOfBoundsException(position);
+        int i = findAdapter(position);
+        return mAdapters[i].areAllItemsEnabled()
+                || mAdapters[i].isEnabled(position - mStarts[i]);
     }
 }
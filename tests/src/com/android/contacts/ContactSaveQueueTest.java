@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts;
+
+import android.content.ContentUris;
+import android.content.Intent;
+import android.net.Uri;
+import android.provider.ContactsContract.Contacts;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Tests for {@link ContactSaveQueue}.
+ */
+@SmallTest
+public class ContactSaveQueueTest extends AndroidTestCase {
+
+    private ContactSaveQueue mQueue;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mQueue = new ContactSaveQueue();
+    }
+
+    public void testEmpty() {
+        assertNull(mQueue.poll());
+    }
+
+    public void testForegroundPassesUnrelatedBulkWork() {
+        final Intent bulk = ContactSaveService.createSetStarredMultipleIntent(getContext(),
+                new long[] { 1, 2 }, false, null, null);
+        final Intent star = ContactSaveService.createSetStarredIntent(getContext(),
+                getContactUri(3), true);
+        mQueue.add(bulk);
+        mQueue.add(star);
+        assertSame(star, mQueue.poll().getIntent());
+        assertSame(bulk, mQueue.poll().getIntent());
+        assertNull(mQueue.poll());
+    }
+
+    public void testForegroundWaitsForBulkWorkOnSameContact() {
+        final Intent bulk = ContactSaveService.createSetStarredMultipleIntent(getContext(),
+                new long[] { 1, 2 }, false, null, null);
+        final Intent star = ContactSaveService.createSetStarredIntent(getContext(),
+                getContactUri(2), true);
+        mQueue.add(bulk);
+        mQueue.add(star);
+        assertSame(bulk, mQueue.poll().getIntent());
+        assertSame(star, mQueue.poll().getIntent());
+    }
+
+    public void testGroupDeletionWaitsForUpdateOfSameGroup() {
+        final Intent update = createGroupUpdateIntent(5);
+        final Intent delete = ContactSaveService.createGroupDeletionIntent(getContext(), 5);
+        mQueue.add(update);
+        mQueue.add(delete);
+        assertSame(update, mQueue.poll().getIntent());
+        assertSame(delete, mQueue.poll().getIntent());
+    }
+
+    public void testGroupDeletionPassesUpdateOfOtherGroup() {
+        final Intent update = createGroupUpdateIntent(5);
+        final Intent delete = ContactSaveService.createGroupDeletionIntent(getContext(), 6);
+        mQueue.add(update);
+        mQueue.add(delete);
+        assertSame(delete, mQueue.poll().getIntent());
+        assertSame(update, mQueue.poll().getIntent());
+    }
+
+    public void testSaveWaitsForBulkWork() {
+        final Intent bulk = ContactSaveService.createDeleteMultipleContactsIntent(getContext(),
+                new long[] { 1 }, null, null);
+        final Intent save = new Intent(ContactSaveService.ACTION_SAVE_CONTACT);
+        mQueue.add(bulk);
+        mQueue.add(save);
+        assertSame(bulk, mQueue.poll().getIntent());
+        assertSame(save, mQueue.poll().getIntent());
+    }
+
+    public void testForegroundRequestsKeepTheirOrder() {
+        final Intent bulk = ContactSaveService.createSetStarredMultipleIntent(getContext(),
+                new long[] { 1 }, true, null, null);
+        final Intent star = ContactSaveService.createSetStarredIntent(getContext(),
+                getContactUri(1), false);
+        final Intent ringtone = ContactSaveService.createSetRingtone(getContext(),
+                getContactUri(2), null);
+        mQueue.add(bulk);
+        mQueue.add(star);
+        mQueue.add(ringtone);
+        // The ringtone doesn't pass the star, which waits for the bulk update
+        assertSame(bulk, mQueue.poll().getIntent());
+        assertSame(star, mQueue.poll().getIntent());
+        assertSame(ringtone, mQueue.poll().getIntent());
+    }
+
+    public void testCoalescing() {
+        final Intent star = ContactSaveService.createSetStarredIntent(getContext(),
+                getContactUri(1), true);
+        final Intent unstar = ContactSaveService.createSetStarredIntent(getContext(),
+                getContactUri(1), false);
+        mQueue.add(star);
+        mQueue.add(unstar);
+        assertSame(unstar, mQueue.poll().getIntent());
+        assertNull(mQueue.poll());
+    }
+
+    private static Intent createGroupUpdateIntent(long groupId) {
+        // The factory method requires a callback activity
+        final Intent intent = new Intent(ContactSaveService.ACTION_UPDATE_GROUP);
+        intent.putExtra(ContactSaveService.EXTRA_GROUP_ID, groupId);
+        intent.putExtra(ContactSaveService.EXTRA_RAW_CONTACTS_TO_ADD, new long[] { 10 });
+        return intent;
+    }
+
+    private static Uri getContactUri(long contactId) {
+        return ContentUris.withAppendedId(Contacts.CONTENT_URI, contactId);
+    }
+}
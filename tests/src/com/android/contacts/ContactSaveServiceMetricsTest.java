@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.contacts.ContactSaveServiceMetrics.ActionStats;
+import com.android.contacts.ContactSaveServiceMetrics.Histogram;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Tests for {@link ContactSaveServiceMetrics}.
+ */
+@SmallTest
+public class ContactSaveServiceMetricsTest extends AndroidTestCase {
+
+    private ContactSaveServiceMetrics mMetrics;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMetrics = ContactSaveServiceMetrics.getInstance();
+        mMetrics.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mMetrics.reset();
+        super.tearDown();
+    }
+
+    public void testNoRequests() {
+        assertTrue(mMetrics.getActions().isEmpty());
+        assertNull(mMetrics.getActionStats(ContactSaveService.ACTION_SAVE_CONTACT));
+    }
+
+    public void testRecordRequests() {
+        mMetrics.recordRequest(ContactSaveService.ACTION_SAVE_CONTACT, 20, 5, 0, false);
+        mMetrics.recordRequest(ContactSaveService.ACTION_SAVE_CONTACT, 300, 12, 2, true);
+        mMetrics.recordRequest(ContactSaveService.ACTION_SET_STARRED, 5, 0, 0, false);
+
+        final ActionStats stats = mMetrics.getActionStats(ContactSaveService.ACTION_SAVE_CONTACT);
+        assertEquals(2, stats.getRequestCount());
+        assertEquals(1, stats.getFailureCount());
+        assertEquals(320, stats.getLatencyMillis().getSum());
+        assertEquals(300, stats.getLatencyMillis().getMax());
+        assertEquals(17, stats.getOperationCounts().getSum());
+        assertEquals(2, stats.getRetryCounts().getMax());
+        assertEquals(2, mMetrics.getActions().size());
+    }
+
+    public void testHistogramBuckets() {
+        mMetrics.recordRequest(ContactSaveService.ACTION_SAVE_CONTACT, 10, 0, 0, false);
+        mMetrics.recordRequest(ContactSaveService.ACTION_SAVE_CONTACT, 11, 0, 0, false);
+        mMetrics.recordRequest(ContactSaveService.ACTION_SAVE_CONTACT, 60000, 0, 0, false);
+
+        final Histogram latency = mMetrics.getActionStats(
+                ContactSaveService.ACTION_SAVE_CONTACT).getLatencyMillis();
+        final int last = latency.getBucketCount() - 1;
+        assertEquals(10, latency.getBucketUpperBound(0));
+        assertEquals(1, latency.getBucketValue(0));
+        assertEquals(1, latency.getBucketValue(1));
+        assertEquals(Long.MAX_VALUE, latency.getBucketUpperBound(last));
+        assertEquals(1, latency.getBucketValue(last));
+    }
+
+    public void testSnapshotIsNotUpdated() {
+        mMetrics.recordRequest(ContactSaveService.ACTION_SAVE_CONTACT, 20, 5, 0, false);
+        final ActionStats stats = mMetrics.getActionStats(ContactSaveService.ACTION_SAVE_CONTACT);
+        mMetrics.recordRequest(ContactSaveService.ACTION_SAVE_CONTACT, 20, 5, 0, false);
+        assertEquals(1, stats.getRequestCount());
+    }
+
+    public void testDump() {
+        mMetrics.recordRetry(ContactSaveServiceMetrics.RETRY_STALE_RAW_CONTACTS, 1);
+        mMetrics.recordRequest(ContactSaveService.ACTION_SAVE_CONTACT, 20, 5, 1, false);
+        final StringWriter writer = new StringWriter();
+        mMetrics.dump(new PrintWriter(writer));
+        final String dump = writer.toString();
+        assertTrue(dump.contains(ContactSaveService.ACTION_SAVE_CONTACT + ": requests=1"));
+        assertTrue(dump.contains("reloadedRawContacts=1"));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.contacts;
+
+import android.content.ContentValues;
+import android.content.Intent;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.Profile;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the {@link ContactSaveService#ACTION_UPDATE_MULTIPLE_CONTACTS} and
+ * {@link ContactSaveService#ACTION_JOIN_CONTACTS} requests of {@link ContactSaveService}.
+ */
+@SmallTest
+public class ContactSaveServiceTest extends AndroidTestCase {
+
+    private static final long[] CONTACT_IDS = new long[] { 1, 2, 3 };
+
+    public void testSetStarredMultipleIntent() {
+        final Intent intent = ContactSaveService.createSetStarredMultipleIntent(getContext(),
+                CONTACT_IDS, true, null, null);
+        assertEquals(ContactSaveService.ACTION_UPDATE_MULTIPLE_CONTACTS, intent.getAction());
+        assertIdsEquals(CONTACT_IDS,
+                intent.getLongArrayExtra(ContactSaveService.EXTRA_CONTACT_IDS));
+        final ContentValues values =
+                intent.getParcelableExtra(ContactSaveService.EXTRA_CONTACT_VALUES);
+        assertEquals(1, values.size());
+        assertTrue(values.getAsBoolean(Contacts.STARRED));
+        assertFalse(intent.hasExtra(ContactSaveService.EXTRA_CALLBACK_INTENT));
+    }
+
+    public void testSetRingtoneMultipleIntent() {
+        final Intent intent = ContactSaveService.createSetRingtoneMultipleIntent(getContext(),
+                CONTACT_IDS, "content://ringtone", null, null);
+        assertEquals(ContactSaveService.ACTION_UPDATE_MULTIPLE_CONTACTS, intent.getAction());
+        final ContentValues values =
+                intent.getParcelableExtra(ContactSaveService.EXTRA_CONTACT_VALUES);
+        assertEquals("content://ringtone", values.getAsString(Contacts.CUSTOM_RINGTONE));
+    }
+
+    public void testUndemoteStarredContacts() {
+        assertIdsEquals(CONTACT_IDS, ContactSaveService.getContactIdsToUndemote(
+                CONTACT_IDS, getStarredIntentValues(true), true));
+    }
+
+    public void testUndemoteStarredContactsAsInteger() {
+        final ContentValues values = new ContentValues();
+        values.put(Contacts.STARRED, 1);
+        assertIdsEquals(CONTACT_IDS,
+                ContactSaveService.getContactIdsToUndemote(CONTACT_IDS, values, true));
+    }
+
+    public void testNoUndemoteWhenUnstarring() {
+        assertEquals(0, ContactSaveService.getContactIdsToUndemote(
+                CONTACT_IDS, getStarredIntentValues(false), true).length);
+    }
+
+    public void testNoUndemoteWhenFailed() {
+        assertEquals(0, ContactSaveService.getContactIdsToUndemote(
+                CONTACT_IDS, getStarredIntentValues(true), false).length);
+    }
+
+    public void testNoUndemoteWithoutStarred() {
+        final ContentValues values = new ContentValues();
+        values.put(Contacts.SEND_TO_VOICEMAIL, true);
+        assertEquals(0, ContactSaveService.getContactIdsToUndemote(
+                CONTACT_IDS, values, true).length);
+    }
+
+    public void testNoUndemoteForProfile() {
+        final long[] contactIds = new long[] { 1, Profile.MIN_ID, 2 };
+        assertIdsEquals(new long[] { 1, 2 }, ContactSaveService.getContactIdsToUndemote(
+                contactIds, getStarredIntentValues(true), true));
+    }
+
+    public void testJoinPairsLinkGroupsToFirst() {
+        final long[] rawContactIds = new long[] { 10, 11, 12, 13 };
+        final List<long[]> keepTogether = Lists.newArrayList();
+        keepTogether.add(new long[] { 12, 13 });
+        final List<long[]> pairs = ContactSaveService.getJoinPairs(rawContactIds, keepTogether,
+                Lists.<long[]>newArrayList());
+        assertEquals("[[10, 11], [10, 12]]", toString(pairs));
+    }
+
+    public void testJoinPairsOverwriteSplit() {
+        // A, B and C were split, which kept every pair of them separate
+        final long[] rawContactIds = new long[] { 10, 11, 12 };
+        final List<long[]> keepSeparate = Lists.newArrayList();
+        keepSeparate.add(new long[] { 10, 11 });
+        keepSeparate.add(new long[] { 10, 12 });
+        keepSeparate.add(new long[] { 11, 12 });
+        final List<long[]> pairs = ContactSaveService.getJoinPairs(rawContactIds,
+                Lists.<long[]>newArrayList(), keepSeparate);
+        assertEquals("[[10, 11], [10, 12], [11, 12]]", toString(pairs));
+    }
+
+    public void testJoinPairsIgnoreOtherRawContacts() {
+        final long[] rawContactIds = new long[] { 10, 11 };
+        final List<long[]> keepSeparate = Lists.newArrayList();
+        keepSeparate.add(new long[] { 11, 20 });
+        final List<long[]> pairs = ContactSaveService.getJoinPairs(rawContactIds,
+                Lists.<long[]>newArrayList(), keepSeparate);
+        assertEquals("[[10, 11]]", toString(pairs));
+    }
+
+    private static String toString(List<long[]> pairs) {
+        final List<String> strings = Lists.newArrayList();
+        for (long[] pair : pairs) {
+            strings.add(Arrays.toString(pair));
+        }
+        return strings.toString();
+    }
+
+    private static void assertIdsEquals(long[] expected, long[] actual) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    private ContentValues getStarredIntentValues(boolean starred) {
+        final Intent intent = ContactSaveService.createSetStarredMultipleIntent(getContext(),
+                CONTACT_IDS, starred, null, null);
+        return intent.getParcelableExtra(ContactSaveService.EXTRA_CONTACT_VALUES);
+    }
+}
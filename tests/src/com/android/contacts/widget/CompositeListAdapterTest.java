@@ -17,10 +17,13 @@ package com.android.contacts.widget;
 
 import android.content.Context;
 import android.database.DataSetObserver;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
 
 import com.google.common.collect.Lists;
 
@@ -34,6 +37,13 @@ import java.util.List;
  */
 public class CompositeListAdapterTest extends AndroidTestCase {
 
+    /**
+     * Time allowed for the lookups of {@link #testLookupBenchmark}. The bound is generous, so
+     * that slow devices pass, and only catches lookups that went back to asking each adapter
+     * for its count.
+     */
+    private static final long MAX_LOOKUP_MILLIS = 5000;
+
     private final class MockAdapter extends ArrayAdapter<String> {
         boolean allItemsEnabled = true;
         HashSet<Integer> enabledItems = new HashSet<Integer>();
@@ -80,6 +90,38 @@ public class CompositeListAdapterTest extends AndroidTestCase {
         }
     }
 
+    /**
+     * Adapter of the given number of items, each item being its own position. Cheap enough to
+     * build many large ones.
+     */
+    private static final class CountAdapter extends BaseAdapter {
+        private final int mCount;
+
+        private CountAdapter(int count) {
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return position;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            return null;
+        }
+    }
+
     private final class TestDataSetObserver extends DataSetObserver {
 
         public int changeCount;
@@ -321,4 +363,52 @@ public class CompositeListAdapterTest extends AndroidTestCase {
         assertTrue(adapter.isEnabled(3));
         assertFalse(adapter.isEnabled(4));
     }
+
+    public void testCapacityLargerThanAdapterCount() {
+        CompositeListAdapter adapter = new CompositeListAdapter(10);
+        adapter.addAdapter(mAdapter1);
+        adapter.addAdapter(mAdapter2);
+
+        assertEquals(2, adapter.getCount());
+        assertEquals("B", adapter.getItem(1));
+        try {
+            adapter.getItem(2);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testGetItemWithEmptyAdapters() {
+        CompositeListAdapter adapter = new CompositeListAdapter();
+        adapter.addAdapter(mAdapter2);
+        adapter.addAdapter(mAdapter1);
+        adapter.addAdapter(new MockAdapter(getContext(), new ArrayList<String>()));
+        adapter.addAdapter(mAdapter3);
+        adapter.addAdapter(new MockAdapter(getContext(), new ArrayList<String>()));
+
+        assertEquals(5, adapter.getCount());
+        assertEquals("A", adapter.getItem(0));
+        assertEquals("B", adapter.getItem(1));
+        assertEquals("C", adapter.getItem(2));
+        assertEquals("E", adapter.getItem(4));
+    }
+
+    @LargeTest
+    public void testLookupBenchmark() {
+        final int adapterCount = 500;
+        final int itemsPerAdapter = 1000;
+        CompositeListAdapter adapter = new CompositeListAdapter();
+        for (int i = 0; i < adapterCount; i++) {
+            adapter.addAdapter(new CountAdapter(itemsPerAdapter));
+        }
+        assertEquals(adapterCount * itemsPerAdapter, adapter.getCount());
+
+        final long start = SystemClock.elapsedRealtime();
+        for (int position = 0; position < adapter.getCount(); position++) {
+            assertEquals(position % itemsPerAdapter, adapter.getItemId(position));
+        }
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        assertTrue(adapter.getCount() + " lookups over " + adapterCount + " adapters took "
+                + elapsed + "ms", elapsed < MAX_LOOKUP_MILLIS);
+    }
 }